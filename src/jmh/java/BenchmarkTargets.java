@@ -0,0 +1,106 @@
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Exposes the hot paths of the default package as JDK functional interfaces.
+ * JMH refuses benchmarks in the default package and Java cannot import from
+ * it, so the benchmarks look these factories up by reflection during setup.
+ */
+public class BenchmarkTargets {
+
+    static final int FRAMES_PER_READ = 64;
+
+    /**
+     * @return Frame parsing loop of {@link NioSyncClient#read()} over {@link #FRAMES_PER_READ} frames
+     */
+    public static Runnable frameParsing() {
+        ClientConfig config = new ClientConfig();
+        // Open loop, as nothing here acquires the window the frames release
+        config.mode = ClientMode.OPEN_LOOP;
+        config.messageSizes = MessageSizes.fixed(64);
+        config.readBufferSize = 65536;
+        config.batchMessages = 1;
+        NioSyncClient client = new NioSyncClient(config, new Metrics());
+
+        ByteBuffer frames = ByteBuffer.allocate(FRAMES_PER_READ * 64);
+        for (int i = 0; i < FRAMES_PER_READ; i++) {
+            long writeTime = System.nanoTime();
+            FrameCodec.encode(frames, writeTime, writeTime, 64);
+        }
+        frames.flip();
+
+        return () -> {
+            client.readBuffer.put(frames);
+            frames.rewind();
+            client.parseFrames();
+        };
+    }
+
+    public static LongConsumer recordLatency() {
+        Metrics metrics = new Metrics();
+        // One connection per benchmark thread, as each client thread has its own
+        ThreadLocal<Metrics.Connection> connections = ThreadLocal.withInitial(metrics::newConnection);
+        return latency -> metrics.recordLatency(connections.get(), latency, 64);
+    }
+
+    /**
+     * @return A read that completes immediately, wrapped with {@link NioRx#wrap}
+     */
+    public static Runnable nioRxRead(Consumer<Object> sink) {
+        ImmediateChannel channel = new ImmediateChannel();
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        return () -> NioRx.<ByteBuffer, Integer> wrap(channel::read, buffer).subscribe(sink::accept);
+    }
+
+    /**
+     * @return A read that completes immediately, re-armed on one {@link NioRx.Operation}
+     */
+    public static Runnable operationRead(Consumer<Object> sink) {
+        ImmediateChannel channel = new ImmediateChannel();
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        NioRx.Operation<ByteBuffer, Integer> operation = new NioRx.Operation<>(
+                channel::read,
+                new CompletionHandler<Integer, NioRx.Operation<ByteBuffer, Integer>>() {
+
+                    @Override
+                    public void completed(Integer result, NioRx.Operation<ByteBuffer, Integer> attachment) {
+                        sink.accept(result);
+                    }
+
+                    @Override
+                    public void failed(Throwable exc, NioRx.Operation<ByteBuffer, Integer> attachment) {
+                        sink.accept(exc);
+                    }
+                });
+        return () -> operation.start(buffer);
+    }
+
+    /**
+     * @return A read that completes immediately, delivered to a raw CompletionHandler
+     */
+    public static Runnable completionHandlerRead(Consumer<Object> sink) {
+        ImmediateChannel channel = new ImmediateChannel();
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        CompletionHandler<Integer, Void> handler = new CompletionHandler<Integer, Void>() {
+
+            @Override
+            public void completed(Integer result, Void attachment) {
+                sink.accept(result);
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                sink.accept(exc);
+            }
+        };
+        return () -> channel.read(buffer, null, handler);
+    }
+
+    static class ImmediateChannel {
+        void read(ByteBuffer dst, Void attachment, CompletionHandler<Integer, Void> onCompleted) {
+            onCompleted.completed(dst.remaining(), attachment);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The put/flip/get/compact cycle every client and server runs on its
+ * buffers. Each iteration appends 64 bytes and consumes whole 24 byte frames,
+ * so compact has to move a partial frame most of the time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BufferBenchmark {
+
+    static final int FRAME_SIZE = 24;
+
+    @Param({ "heap", "direct" })
+    String type;
+
+    ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        buffer = type.equals("direct") ? ByteBuffer.allocateDirect(65536) : ByteBuffer.allocate(65536);
+    }
+
+    @Benchmark
+    public void flipCompact(Blackhole bh) {
+        for (int i = 0; i < 8; i++) {
+            buffer.putLong(i);
+        }
+
+        buffer.flip();
+        while (buffer.remaining() >= FRAME_SIZE) {
+            bh.consume(buffer.getLong());
+            bh.consume(buffer.getLong());
+            bh.consume(buffer.getLong());
+        }
+        buffer.compact();
+    }
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Metrics.recordLatency with increasing numbers of contending threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MetricsBenchmark {
+
+    LongConsumer recordLatency;
+
+    @Setup
+    public void setup() {
+        recordLatency = Targets.create(LongConsumer.class, "recordLatency");
+    }
+
+    @State(Scope.Thread)
+    public static class Sample {
+        long latency = 1000;
+
+        long next() {
+            latency = (latency * 31 + 17) & 0xFFFFFF;
+            return latency;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void recordLatency1(Sample sample) {
+        recordLatency.accept(sample.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordLatency4(Sample sample) {
+        recordLatency.accept(sample.next());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void recordLatency16(Sample sample) {
+        recordLatency.accept(sample.next());
+    }
+}
@@ -0,0 +1,51 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-operation overhead of NioRx.wrap and a reusable NioRx.Operation
+ * compared to calling a CompletionHandler directly. The wrapped read completes synchronously so
+ * only the wrapping cost is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NioRxBenchmark {
+
+    Runnable completionHandler;
+    Runnable wrap;
+    Runnable operation;
+
+    @Setup
+    public void setup(Blackhole bh) {
+        Consumer<Object> sink = bh::consume;
+        completionHandler = Targets.create(Runnable.class, "completionHandlerRead", sink);
+        wrap = Targets.create(Runnable.class, "nioRxRead", sink);
+        operation = Targets.create(Runnable.class, "operationRead", sink);
+    }
+
+    @Benchmark
+    public void completionHandler() {
+        completionHandler.run();
+    }
+
+    @Benchmark
+    public void wrap() {
+        wrap.run();
+    }
+
+    @Benchmark
+    public void operation() {
+        operation.run();
+    }
+}
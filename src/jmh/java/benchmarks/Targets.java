@@ -0,0 +1,26 @@
+package benchmarks;
+
+import java.lang.reflect.Method;
+
+/**
+ * Looks up factories in the default package BenchmarkTargets class.
+ */
+final class Targets {
+
+    private Targets() {
+    }
+
+    static <T> T create(Class<T> type, String factory, Object... args) {
+        try {
+            Class<?> targets = Class.forName("BenchmarkTargets");
+            for (Method method : targets.getMethods()) {
+                if (method.getName().equals(factory) && method.getParameterCount() == args.length) {
+                    return type.cast(method.invoke(null, args));
+                }
+            }
+            throw new IllegalArgumentException("No benchmark target " + factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
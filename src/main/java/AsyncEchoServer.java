@@ -1,28 +1,37 @@
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 
 public class AsyncEchoServer {
-    public static final int PORT = 4726;
-    public static final int BUFFER_SIZE = 65536;
+    public static final int PORT = Integer.getInteger("port", 4726);
+    public static final int BUFFER_SIZE = Integer.getInteger("bufferSize", 65536);
+    public static final int MIN_BUFFER_SIZE = 512;
+
+    static final BufferPool bufferPool = new BufferPool(MIN_BUFFER_SIZE, BUFFER_SIZE);
+    static final ServerMetrics metrics = new ServerMetrics("async");
+    static final SocketTuning tuning = SocketTuning.fromSystemProperties();
 
     public static void main(String[] args) throws Exception {
-        startAsyncServer();
+        startAsyncServer(ChannelGroups.fromSystemProperties());
     }
 
-    static void startAsyncServer() throws IOException, InterruptedException {
+    static void startAsyncServer(ChannelGroups channelGroups) throws IOException, InterruptedException {
         CountDownLatch quit = new CountDownLatch(1);
-        AsynchronousServerSocketChannel server = AsynchronousServerSocketChannel.open();
         InetSocketAddress local = new InetSocketAddress(PORT);
-        server.bind(local);
-        System.out.printf("Async serv listening on %s\n", local);
+        AsynchronousServerSocketChannel[] servers = channelGroups.bindServers(local, tuning);
+        System.out.printf("Async serv listening on %s using %s channel group\n", servers[0].getLocalAddress(), channelGroups);
+        metrics.setBufferBytes(bufferPool::getLeasedBytes);
+        metrics.start();
 
-        beginAccept(server);
+        for (AsynchronousServerSocketChannel server : servers) {
+            beginAccept(server);
+        }
         quit.await();
     }
 
@@ -43,54 +52,78 @@ public class AsyncEchoServer {
                 public void completed(
                         AsynchronousSocketChannel clientSocket,
                         AsynchronousServerSocketChannel serverSocket) {
-                    System.out.printf("Connected to %s\n", Utils.getRemoteAddress(clientSocket));
+                    ServerMetrics.Connection connection = metrics.recordAccept();
                     beginAccept(serverSocket);
-                    try {
-                        clientSocket.setOption(StandardSocketOptions.TCP_NODELAY, true);
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                    if (Utils.LOG_CONNECTIONS) {
+                        System.out.printf("Connected to %s\n", Utils.getRemoteAddress(clientSocket));
                     }
-                    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
-                    Client client = new Client(clientSocket, buffer);
-                    beginRead(client);
+                    tuning.applyAndLog(clientSocket);
+                    beginRead(Client.open(clientSocket, connection));
                 }
             };
 
+    /**
+     * State of one connection. Closed clients are kept and reused for later
+     * connections, so short-lived connections allocate nothing once the pool
+     * has warmed up.
+     */
     static class Client {
-        public Client(AsynchronousSocketChannel socket, ByteBuffer buffer) {
-            this.socket = socket;
-            this.buffer = buffer;
-        }
+        static final Queue<Client> free = new ConcurrentLinkedQueue<>();
 
         public AsynchronousSocketChannel socket;
-        public ByteBuffer buffer;
+        public ServerMetrics.Connection connection;
+        public final ConnectionBuffer buffer = new ConnectionBuffer(bufferPool);
+        public boolean filled;
+
+        static Client open(AsynchronousSocketChannel socket, ServerMetrics.Connection connection) {
+            Client client = free.poll();
+            if (client == null) {
+                client = new Client();
+            }
+            client.socket = socket;
+            client.connection = connection;
+            client.filled = false;
+            return client;
+        }
+
+        public void close() {
+            Utils.closeAndLog(socket);
+            buffer.release();
+            metrics.recordClose(connection);
+            socket = null;
+            connection = null;
+            free.add(this);
+        }
     }
 
     static void beginRead(Client client) {
-        client.socket.read(client.buffer, client, endRead);
+        client.socket.read(client.buffer.get(), client, endRead);
     }
 
     static final CompletionHandler<Integer, Client> endRead = new CompletionHandler<Integer, Client>() {
 
         @Override
         public void completed(Integer result, Client client) {
-            if (result == 0) {
-                Utils.closeAndLog(client.socket);
+            if (result <= 0) {
+                client.close();
                 return;
             }
-            client.buffer.flip();
+            metrics.recordRead(client.connection, result);
+            ByteBuffer buffer = client.buffer.get();
+            client.filled = !buffer.hasRemaining();
+            buffer.flip();
             beginWrite(client);
         }
 
         @Override
         public void failed(Throwable exc, Client client) {
-            exc.printStackTrace();
-            Utils.closeAndLog(client.socket);
+            Utils.printUnlessReset(exc);
+            client.close();
         }
     };
 
     static void beginWrite(Client client) {
-        client.socket.write(client.buffer, client, endWrite);
+        client.socket.write(client.buffer.get(), client, endWrite);
     }
 
     static final CompletionHandler<Integer, Client> endWrite = new CompletionHandler<Integer, Client>() {
@@ -98,17 +131,22 @@ public class AsyncEchoServer {
         @Override
         public void completed(Integer result, Client client) {
             if (result == 0) {
-                Utils.closeAndLog(client.socket);
+                client.close();
+                return;
+            }
+            metrics.recordWrite(client.connection, result);
+            if (client.buffer.get().hasRemaining()) {
+                beginWrite(client);
                 return;
             }
-            client.buffer.compact();
+            client.buffer.drained(client.filled);
             beginRead(client);
         }
 
         @Override
         public void failed(Throwable exc, Client client) {
-            exc.printStackTrace();
-            Utils.closeAndLog(client.socket);
+            Utils.printUnlessReset(exc);
+            client.close();
         }
     };
 }
@@ -0,0 +1,143 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs any client implementation for a warm-up period followed by a fixed
+ * measurement period and appends the summary to a results file.
+ *
+ * -Ddepths=1,4,16 repeats the run pipelined at each depth, -Dsizes repeats it
+ * with each fixed message size, given as a list or as MIN-MAX to double from
+ * MIN up to MAX. When the message size varies, a row per power-of-two size
+ * range follows the overall row.
+ */
+public class BenchmarkDriver {
+
+    public static void main(String[] args) throws Exception {
+        ClientType clientType = ClientType.parse(System.getProperty("client", "sync"));
+        ClientConfig config = ClientConfig.fromSystemProperties(12, "half");
+        int warmupSeconds = Integer.parseInt(System.getProperty("warmup", "5"));
+        int durationSeconds = Integer.parseInt(System.getProperty("duration", "30"));
+        String output = System.getProperty("output", "results.json");
+        String depths = System.getProperty("depths");
+        String sizes = System.getProperty("sizes");
+
+        if (sizes != null) {
+            for (int size : parseSizes(sizes)) {
+                ClientConfig sizeConfig = config.copy();
+                sizeConfig.messageSizes = MessageSizes.fixed(size);
+                runAndAppend(clientType, sizeConfig, warmupSeconds, durationSeconds, output);
+            }
+        } else if (depths == null) {
+            runAndAppend(clientType, config, warmupSeconds, durationSeconds, output);
+        } else {
+            for (String depth : depths.split(",")) {
+                ClientConfig depthConfig = config.copy();
+                depthConfig.mode = ClientMode.PIPELINED;
+                depthConfig.depth = Integer.parseInt(depth.trim());
+                runAndAppend(clientType, depthConfig, warmupSeconds, durationSeconds, output);
+            }
+        }
+        System.exit(0);
+    }
+
+    static void runAndAppend(
+            ClientType clientType,
+            ClientConfig config,
+            int warmupSeconds,
+            int durationSeconds,
+            String output) throws Exception {
+        List<BenchmarkResult> results = run(clientType, config, warmupSeconds, durationSeconds);
+        for (BenchmarkResult result : results) {
+            result.parameters.put("label", System.getProperty("label", ""));
+            result.appendTo(output);
+        }
+
+        System.out.printf("Wrote results to %s\n", output);
+        for (BenchmarkResult result : results) {
+            System.out.println(result.toJson());
+        }
+    }
+
+    /**
+     * @return Message sizes of "64,1024" or of "16-1048576", which doubles from 16
+     */
+    static List<Integer> parseSizes(String sizes) {
+        List<Integer> list = new ArrayList<>();
+        if (sizes.contains("-")) {
+            String[] range = sizes.split("-");
+            long max = Long.parseLong(range[1].trim());
+            for (long size = Long.parseLong(range[0].trim()); size <= max; size *= 2) {
+                list.add((int) size);
+            }
+        } else {
+            for (String size : sizes.split(",")) {
+                list.add(Integer.parseInt(size.trim()));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return The overall result, followed by one per frame size range if the size varies
+     */
+    static List<BenchmarkResult> run(ClientType clientType, ClientConfig config, int warmupSeconds, int durationSeconds)
+            throws Exception {
+        Metrics metrics = new Metrics();
+        if (!config.messageSizes.isFixed()) {
+            metrics.enableSizeBuckets();
+        }
+        metrics.start();
+
+        System.out.format(
+                "Running %s with %d clients against %s using %s, message size %s, warm-up %ds, duration %ds\n",
+                clientType,
+                config.numClients,
+                config.remote,
+                config.mode,
+                config.messageSizes,
+                warmupSeconds,
+                durationSeconds);
+
+        List<EchoClient> clients = new ArrayList<>();
+        for (int i = 0; i < config.numClients; i++) {
+            EchoClient client = clientType.create(config, metrics);
+            client.start();
+            clients.add(client);
+        }
+
+        Thread.sleep(warmupSeconds * 1000L);
+        metrics.resetTotals();
+        Thread.sleep(durationSeconds * 1000L);
+        BenchmarkResult result = metrics.getTotals();
+        List<BenchmarkResult> bySize = metrics.getTotalsBySize();
+        metrics.stop();
+
+        for (EchoClient client : clients) {
+            client.close();
+        }
+        for (EchoClient client : clients) {
+            client.waitForClose();
+        }
+
+        result.parameters.put("client", clientType.toString());
+        result.parameters.put("server", config.remote.toString());
+        result.parameters.put("clientMode", config.mode.toString());
+        result.parameters.put("connections", Integer.toString(config.numClients));
+        result.parameters.put("depth", config.mode == ClientMode.PIPELINED ? Integer.toString(config.depth) : "");
+        result.parameters.put("threadMode", config.threadMode.toString());
+        result.parameters.put("messageSize", config.messageSizes.toString());
+        result.parameters.put("sizeBucket", "all");
+
+        List<BenchmarkResult> results = new ArrayList<>();
+        results.add(result);
+        for (BenchmarkResult sizeResult : bySize) {
+            // Same columns in the same order as the overall row
+            String sizeBucket = sizeResult.parameters.get("sizeBucket");
+            sizeResult.parameters.clear();
+            sizeResult.parameters.putAll(result.parameters);
+            sizeResult.parameters.put("sizeBucket", sizeBucket);
+            results.add(sizeResult);
+        }
+        return results;
+    }
+}
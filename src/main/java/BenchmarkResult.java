@@ -0,0 +1,234 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Summary of a measurement period that can be appended to a results file as
+ * a JSON line or a CSV row.
+ */
+public class BenchmarkResult {
+
+    /**
+     * Parameter columns of a CSV row, in order, whichever client or runner set
+     * them, so rows of different runs can share a file. Parameters a run does
+     * not have are left empty.
+     */
+    static final List<String> CSV_PARAMETERS = List.of(
+            "client",
+            "server",
+            "clientMode",
+            "connections",
+            "depth",
+            "threadMode",
+            "channelGroup",
+            "messageSize",
+            "sizeBucket",
+            "agents",
+            "label");
+
+    public final Map<String, String> parameters = new LinkedHashMap<>();
+    public final double durationSeconds;
+    public final long messageCount;
+    public final long readCount;
+    public final long readBytes;
+    public final long writeCount;
+    public final long writeMessageCount;
+    public final long writeBytes;
+    public final double latencyP50;
+    public final double latencyP90;
+    public final double latencyP99;
+    public final double latencyP999;
+    public final double latencyP9999;
+    public final double latencyMax;
+    public final double serviceTimeP50;
+    public final double serviceTimeP99;
+    public final double serviceTimeP999;
+    public final double serviceTimeMax;
+    public final double connectionFairness;
+    public final double connectionRateMin;
+    public final double connectionRateMax;
+    public final long connectCount;
+    public final double connectP50;
+    public final double connectP99;
+    public final double connectP999;
+    public final double connectMax;
+
+    public BenchmarkResult(
+            double durationSeconds,
+            long readCount,
+            long readBytes,
+            long writeCount,
+            long writeMessageCount,
+            long writeBytes,
+            LatencyHistogram latencies,
+            LatencyHistogram serviceTimes,
+            LatencyHistogram connectLatencies,
+            long[] connectionMessages) {
+        this.durationSeconds = durationSeconds;
+        this.messageCount = latencies.getTotalCount();
+        this.readCount = readCount;
+        this.readBytes = readBytes;
+        this.writeCount = writeCount;
+        this.writeMessageCount = writeMessageCount;
+        this.writeBytes = writeBytes;
+        this.latencyP50 = (double) latencies.getValueAtPercentile(50) * 1e-6;
+        this.latencyP90 = (double) latencies.getValueAtPercentile(90) * 1e-6;
+        this.latencyP99 = (double) latencies.getValueAtPercentile(99) * 1e-6;
+        this.latencyP999 = (double) latencies.getValueAtPercentile(99.9) * 1e-6;
+        this.latencyP9999 = (double) latencies.getValueAtPercentile(99.99) * 1e-6;
+        this.latencyMax = (double) latencies.getMaxValue() * 1e-6;
+        this.serviceTimeP50 = (double) serviceTimes.getValueAtPercentile(50) * 1e-6;
+        this.serviceTimeP99 = (double) serviceTimes.getValueAtPercentile(99) * 1e-6;
+        this.serviceTimeP999 = (double) serviceTimes.getValueAtPercentile(99.9) * 1e-6;
+        this.serviceTimeMax = (double) serviceTimes.getMaxValue() * 1e-6;
+        this.connectionFairness = Metrics.fairnessIndex(connectionMessages);
+        long min = connectionMessages.length == 0 ? 0 : Long.MAX_VALUE;
+        long max = 0;
+        for (long messages : connectionMessages) {
+            min = Math.min(min, messages);
+            max = Math.max(max, messages);
+        }
+        this.connectionRateMin = durationSeconds == 0 ? 0 : (double) min / durationSeconds;
+        this.connectionRateMax = durationSeconds == 0 ? 0 : (double) max / durationSeconds;
+        this.connectCount = connectLatencies.getTotalCount();
+        this.connectP50 = (double) connectLatencies.getValueAtPercentile(50) * 1e-6;
+        this.connectP99 = (double) connectLatencies.getValueAtPercentile(99) * 1e-6;
+        this.connectP999 = (double) connectLatencies.getValueAtPercentile(99.9) * 1e-6;
+        this.connectMax = (double) connectLatencies.getMaxValue() * 1e-6;
+    }
+
+    public double getMessageRate() {
+        return durationSeconds == 0 ? 0 : (double) messageCount / durationSeconds;
+    }
+
+    public double getByteRate() {
+        return durationSeconds == 0 ? 0 : (double) readBytes / durationSeconds;
+    }
+
+    public double getConnectRate() {
+        return durationSeconds == 0 ? 0 : (double) connectCount / durationSeconds;
+    }
+
+    public double getMessagesPerWrite() {
+        return writeCount == 0 ? 0 : (double) writeMessageCount / writeCount;
+    }
+
+    public double getBytesPerWrite() {
+        return writeCount == 0 ? 0 : (double) writeBytes / writeCount;
+    }
+
+    private Map<String, Object> values() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("durationSeconds", durationSeconds);
+        values.put("messages", messageCount);
+        values.put("reads", readCount);
+        values.put("bytes", readBytes);
+        values.put("writes", writeCount);
+        values.put("messagesPerWrite", getMessagesPerWrite());
+        values.put("bytesPerWrite", getBytesPerWrite());
+        values.put("messageRate", getMessageRate());
+        values.put("byteRate", getByteRate());
+        values.put("latencyP50Ms", latencyP50);
+        values.put("latencyP90Ms", latencyP90);
+        values.put("latencyP99Ms", latencyP99);
+        values.put("latencyP999Ms", latencyP999);
+        values.put("latencyP9999Ms", latencyP9999);
+        values.put("latencyMaxMs", latencyMax);
+        values.put("serviceTimeP50Ms", serviceTimeP50);
+        values.put("serviceTimeP99Ms", serviceTimeP99);
+        values.put("serviceTimeP999Ms", serviceTimeP999);
+        values.put("serviceTimeMaxMs", serviceTimeMax);
+        values.put("connectionFairness", connectionFairness);
+        values.put("connectionRateMin", connectionRateMin);
+        values.put("connectionRateMax", connectionRateMax);
+        values.put("connects", connectCount);
+        values.put("connectRate", getConnectRate());
+        values.put("connectP50Ms", connectP50);
+        values.put("connectP99Ms", connectP99);
+        values.put("connectP999Ms", connectP999);
+        values.put("connectMaxMs", connectMax);
+        return values;
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            json.append('"').append(parameter.getKey()).append("\":\"").append(parameter.getValue()).append("\",");
+        }
+        for (Map.Entry<String, Object> value : values().entrySet()) {
+            json.append('"').append(value.getKey()).append("\":").append(format(value.getValue())).append(',');
+        }
+        json.setCharAt(json.length() - 1, '}');
+        return json.toString();
+    }
+
+    public String toCsvHeader() {
+        StringBuilder csv = new StringBuilder();
+        for (String key : CSV_PARAMETERS) {
+            csv.append(key).append(',');
+        }
+        for (String key : values().keySet()) {
+            csv.append(key).append(',');
+        }
+        return csv.substring(0, csv.length() - 1);
+    }
+
+    public String toCsv() {
+        for (String key : parameters.keySet()) {
+            if (!CSV_PARAMETERS.contains(key)) {
+                throw new IllegalStateException("No CSV column for parameter " + key);
+            }
+        }
+        StringBuilder csv = new StringBuilder();
+        for (String key : CSV_PARAMETERS) {
+            csv.append(parameters.getOrDefault(key, "")).append(',');
+        }
+        for (Object value : values().values()) {
+            csv.append(format(value)).append(',');
+        }
+        return csv.substring(0, csv.length() - 1);
+    }
+
+    /**
+     * Appends the result to a file. Files ending in .csv get a CSV row (and a
+     * header if the file is new), anything else gets one JSON object per line.
+     *
+     * @param path Results file
+     * @throws IOException Also if an existing CSV file has other columns
+     */
+    public void appendTo(String path) throws IOException {
+        File file = new File(path);
+        boolean csv = path.endsWith(".csv");
+        boolean newFile = !file.exists() || file.length() == 0;
+        if (csv && !newFile) {
+            String header;
+            try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+                header = in.readLine();
+            }
+            if (!toCsvHeader().equals(header)) {
+                throw new IOException(String.format(
+                        "%s has columns %s rather than %s, use another file", path, header, toCsvHeader()));
+            }
+        }
+        try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+            if (csv && newFile) {
+                out.println(toCsvHeader());
+            }
+            out.println(csv ? toCsv() : toJson());
+        }
+    }
+
+    private static String format(Object value) {
+        if (value instanceof Double) {
+            return String.format(Locale.ROOT, "%.3f", (Double) value);
+        }
+        return value.toString();
+    }
+}
@@ -0,0 +1,90 @@
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of direct buffers in power-of-two size classes. Each size class is
+ * carved out of 1 MB direct slabs, so direct memory is allocated in a few
+ * large chunks and never freed, and I/O on the buffers needs no copy into a
+ * temporary direct buffer.
+ */
+public class BufferPool {
+    static final int SLAB_SIZE = 1 << 20;
+
+    private final int minSizeShift;
+    private final Queue<ByteBuffer>[] freeLists;
+    private final LongAdder leasedBytes = new LongAdder();
+
+    /**
+     * @param minSize Smallest size class, rounded up to a power of two
+     * @param maxSize Largest size class, rounded up to a power of two
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(int minSize, int maxSize) {
+        minSizeShift = ceilLog2(minSize);
+        freeLists = new Queue[ceilLog2(maxSize) - minSizeShift + 1];
+        for (int i = 0; i < freeLists.length; i++) {
+            freeLists[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    public int getMinSize() {
+        return 1 << minSizeShift;
+    }
+
+    public int getMaxSize() {
+        return 1 << (minSizeShift + freeLists.length - 1);
+    }
+
+    /**
+     * @return Capacity of all buffers currently leased
+     */
+    public long getLeasedBytes() {
+        return leasedBytes.sum();
+    }
+
+    /**
+     * Takes a cleared buffer from the pool.
+     *
+     * @param size Minimum capacity, at most {@link #getMaxSize()}
+     * @return Buffer of the smallest size class that holds size bytes
+     */
+    public ByteBuffer lease(int size) {
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer;
+        while ((buffer = freeLists[sizeClass].poll()) == null) {
+            allocateSlab(sizeClass);
+        }
+        leasedBytes.add(buffer.capacity());
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #lease(int)}. The buffer must not
+     * be used afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        leasedBytes.add(-buffer.capacity());
+        freeLists[sizeClass(buffer.capacity())].add(buffer);
+    }
+
+    private int sizeClass(int size) {
+        return Math.max(0, ceilLog2(size) - minSizeShift);
+    }
+
+    private void allocateSlab(int sizeClass) {
+        int bufferSize = 1 << (minSizeShift + sizeClass);
+        ByteBuffer slab = ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, bufferSize));
+        for (int offset = 0; offset < slab.capacity(); offset += bufferSize) {
+            slab.limit(offset + bufferSize);
+            slab.position(offset);
+            freeLists[sizeClass].add(slab.slice());
+        }
+    }
+
+    private static int ceilLog2(int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(1, value) - 1);
+    }
+}
@@ -0,0 +1,121 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drains {@link BulkTransferServer} with -DnumClients connections (default 1)
+ * for each of -DtransferModes (default transferTo,direct,heap) in turn, and
+ * prints the throughput in GB/s and the CPU time this process spent per GB.
+ * The server prints its own CPU time per GB as each connection closes.
+ *
+ * Each connection reads on its own thread into a direct buffer of
+ * -DbufferSize bytes (default 1MB), so the client copies as little as the
+ * socket API allows and is unlikely to be the bottleneck.
+ */
+public class BulkTransferClient {
+
+    static final int BUFFER_SIZE = Integer.parseInt(System.getProperty("bufferSize", Integer.toString(1 << 20)));
+
+    private final SocketChannel socket;
+    private final LongAdder bytesRead;
+    private volatile boolean closed;
+    private Thread reader;
+
+    public BulkTransferClient(SocketChannel socket, LongAdder bytesRead) {
+        this.socket = socket;
+        this.bytesRead = bytesRead;
+    }
+
+    public void start(TransferMode mode) throws IOException {
+        ByteBuffer request = ByteBuffer.allocate(1);
+        request.put(0, (byte) mode.ordinal());
+        socket.write(request);
+        reader = Thread.ofPlatform().start(this::readLoop);
+    }
+
+    public void close() throws InterruptedException {
+        closed = true;
+        Utils.closeAndLog(socket);
+        reader.join();
+    }
+
+    private void readLoop() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try {
+            while (true) {
+                int bytes = socket.read(buffer);
+                if (bytes < 0) {
+                    break;
+                }
+                bytesRead.add(bytes);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ClientConfig config = ClientConfig.fromSystemProperties(1, "full");
+        int warmupSeconds = Integer.parseInt(System.getProperty("warmup", "2"));
+        int durationSeconds = Integer.parseInt(System.getProperty("duration", "10"));
+        String transferModes = System.getProperty("transferModes", "transferTo,direct,heap");
+
+        // All parsed before the first run, so a typo fails at once
+        List<TransferMode> modes = new ArrayList<>();
+        for (String transferMode : transferModes.split(",")) {
+            modes.add(TransferMode.parse(transferMode.trim()));
+        }
+        for (TransferMode mode : modes) {
+            run(config, mode, warmupSeconds, durationSeconds);
+        }
+    }
+
+    static void run(ClientConfig config, TransferMode mode, int warmupSeconds, int durationSeconds) throws Exception {
+        System.out.format(
+                "Receiving from %s with %d clients using %s, warm-up %ds, duration %ds\n",
+                config.remote,
+                config.numClients,
+                mode,
+                warmupSeconds,
+                durationSeconds);
+
+        LongAdder bytesRead = new LongAdder();
+        List<BulkTransferClient> clients = new ArrayList<>();
+        for (int i = 0; i < config.numClients; i++) {
+            SocketChannel socket = SocketChannel.open();
+            config.tuning.apply(socket);
+            socket.connect(config.remote);
+            BulkTransferClient client = new BulkTransferClient(socket, bytesRead);
+            client.start(mode);
+            clients.add(client);
+        }
+
+        Thread.sleep(warmupSeconds * 1000L);
+        long startTime = System.nanoTime();
+        long startCpuTime = Utils.getProcessCpuTime();
+        long startBytes = bytesRead.sum();
+        Thread.sleep(durationSeconds * 1000L);
+        long timeInNanos = System.nanoTime() - startTime;
+        long cpuTimeInNanos = Utils.getProcessCpuTime() - startCpuTime;
+        double gigabytes = (double) (bytesRead.sum() - startBytes) * 1e-9;
+
+        for (BulkTransferClient client : clients) {
+            client.close();
+        }
+
+        System.out
+                .printf(
+                        "%s: %.2f GB in %.1fs: %.2f GB/s, client %.0f CPU ms/GB\n",
+                        mode,
+                        gigabytes,
+                        (double) timeInNanos * 1e-9,
+                        gigabytes / ((double) timeInNanos * 1e-9),
+                        gigabytes == 0 ? 0.0 : (double) cpuTimeInNanos * 1e-6 / gigabytes);
+    }
+}
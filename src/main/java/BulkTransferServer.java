@@ -0,0 +1,176 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streams one file to every client over and over until the client
+ * disconnects, to measure what zero-copy buys over copying through a buffer.
+ *
+ * A client picks the {@link TransferMode} of its connection by sending the
+ * mode's ordinal as a single byte, see {@link BulkTransferClient}. The file
+ * is -Dfile, or a file of -DfileSize bytes (default 256MB) generated through a
+ * memory mapping and deleted on exit. The buffered modes copy -DbufferSize
+ * bytes (default 1MB) at a time.
+ *
+ * Each connection runs on its own platform thread, so the thread's CPU time
+ * is the cost of its transfer. It is printed as CPU ms per GB when the
+ * connection closes.
+ */
+public class BulkTransferServer {
+
+    public static final int PORT = Integer.getInteger("port", 4726);
+    public static final int BUFFER_SIZE = Integer.parseInt(System.getProperty("bufferSize", Integer.toString(1 << 20)));
+    static final int MAP_SIZE = 1 << 30;
+
+    static final ServerMetrics metrics = new ServerMetrics("bulk");
+    static final SocketTuning tuning = SocketTuning.fromSystemProperties();
+    static final LongAdder bufferBytes = new LongAdder();
+    static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        FileChannel file = openFile();
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            tuning.bind(server, new InetSocketAddress(PORT));
+            System.out.printf("Bulk server Listening on %s, sending %d bytes per pass\n", server.getLocalAddress(), file.size());
+            metrics.setBufferBytes(bufferBytes::sum);
+            metrics.start();
+            while (true) {
+                SocketChannel client = server.accept();
+                ServerMetrics.Connection connection = metrics.recordAccept();
+                tuning.applyAndLog(client);
+                Thread.ofPlatform().start(() -> handleConnection(client, connection, file));
+            }
+        }
+    }
+
+    static FileChannel openFile() throws IOException {
+        String path = System.getProperty("file");
+        if (path != null) {
+            return FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        }
+
+        long size = Long.parseLong(System.getProperty("fileSize", Long.toString(256L << 20)));
+        Path generated = Files.createTempFile("bulk-", ".bin");
+        generated.toFile().deleteOnExit();
+        FileChannel file = FileChannel.open(generated, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Written through a mapping so the pages are real and in the page cache
+        for (long position = 0; position < size; position += MAP_SIZE) {
+            MappedByteBuffer map = file.map(FileChannel.MapMode.READ_WRITE, position, Math.min(MAP_SIZE, size - position));
+            while (map.remaining() >= Long.BYTES) {
+                map.putLong(position + map.position());
+            }
+            while (map.hasRemaining()) {
+                map.put((byte) 0);
+            }
+        }
+        System.out.printf("Generated %d byte file %s\n", size, generated);
+        return file;
+    }
+
+    static void handleConnection(SocketChannel socket, ServerMetrics.Connection connection, FileChannel file) {
+        TransferMode mode = null;
+        ByteBuffer buffer = null;
+        long bytesSent = 0;
+        long startTime = System.nanoTime();
+        long startCpuTime = threads.getCurrentThreadCpuTime();
+        try {
+            ByteBuffer request = ByteBuffer.allocate(1);
+            if (socket.read(request) <= 0) {
+                return;
+            }
+            int requested = request.get(0) & 0xff;
+            mode = TransferMode.fromOrdinal(requested);
+            if (mode == null) {
+                System.out.printf("Unknown transfer mode %d requested by %s\n", requested, socket.getRemoteAddress());
+                return;
+            }
+            if (Utils.LOG_CONNECTIONS) {
+                System.out.printf("Client connected from %s using %s\n", socket.getRemoteAddress(), mode);
+            }
+
+            switch (mode) {
+            case DIRECT:
+                buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                bufferBytes.add(BUFFER_SIZE);
+                break;
+            case HEAP:
+                buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                bufferBytes.add(BUFFER_SIZE);
+                break;
+            default:
+                break;
+            }
+
+            startTime = System.nanoTime();
+            startCpuTime = threads.getCurrentThreadCpuTime();
+            long size = file.size();
+            long position = 0;
+            while (true) {
+                long bytes = send(file, position, socket, buffer);
+                bytesSent += bytes;
+                position = (position + bytes) % size;
+            }
+        } catch (IOException e) {
+            // The client ends the transfer by closing the connection
+        } finally {
+            if (buffer != null) {
+                bufferBytes.add(-BUFFER_SIZE);
+            }
+            Utils.closeAndLog(socket);
+            metrics.recordClose(connection);
+            if (mode != null) {
+                printTransfer(mode, bytesSent, System.nanoTime() - startTime, threads.getCurrentThreadCpuTime() - startCpuTime);
+            }
+        }
+    }
+
+    /**
+     * Sends the file from position onwards, as much as one call moves.
+     *
+     * @param buffer Buffer to copy through, null to use transferTo
+     * @return Bytes sent
+     */
+    static long send(FileChannel file, long position, SocketChannel socket, ByteBuffer buffer) throws IOException {
+        long bytes;
+        if (buffer == null) {
+            bytes = file.transferTo(position, file.size() - position, socket);
+        } else {
+            buffer.clear();
+            file.read(buffer, position);
+            buffer.flip();
+            bytes = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                socket.write(buffer);
+            }
+        }
+        if (bytes <= 0) {
+            throw new EOFException("Nothing sent at position " + position);
+        }
+        metrics.recordWrite(bytes);
+        return bytes;
+    }
+
+    static void printTransfer(TransferMode mode, long bytes, long timeInNanos, long cpuTimeInNanos) {
+        double gigabytes = (double) bytes * 1e-9;
+        System.out
+                .printf(
+                        "Sent %.2f GB using %s in %.1fs: %.2f GB/s, %.0f CPU ms/GB\n",
+                        gigabytes,
+                        mode,
+                        (double) timeInNanos * 1e-9,
+                        gigabytes / ((double) timeInNanos * 1e-9),
+                        gigabytes == 0 ? 0.0 : (double) cpuTimeInNanos * 1e-6 / gigabytes);
+    }
+}
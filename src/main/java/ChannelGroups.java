@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses the {@link AsynchronousChannelGroup} each AIO channel is opened in.
+ * The groups are created on first use and run on daemon threads, like the
+ * JVM-wide default group.
+ */
+public class ChannelGroups {
+
+    public enum Strategy {
+        /** JVM-wide default group */
+        DEFAULT,
+        /** One group with a fixed pool of threads */
+        FIXED,
+        /** One group with a cached pool of threads */
+        CACHED,
+        /** One group with a single thread */
+        SINGLE,
+        /** Independent single-threaded groups, connections spread round-robin */
+        SHARDED;
+
+        public static Strategy parse(String strategyString) {
+            return valueOf(strategyString.toUpperCase());
+        }
+    }
+
+    private final Strategy strategy;
+    private final int threads;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private AsynchronousChannelGroup[] groups;
+
+    /**
+     * @param threads Pool size of {@link Strategy#FIXED}, initial size of
+     *            {@link Strategy#CACHED} or number of {@link Strategy#SHARDED} groups
+     */
+    public ChannelGroups(Strategy strategy, int threads) {
+        this.strategy = strategy;
+        this.threads = Math.max(1, threads);
+    }
+
+    public static ChannelGroups fromSystemProperties() {
+        Strategy strategy = Strategy.parse(System.getProperty("channelGroup", "default"));
+        int threads = Integer.parseInt(
+                System.getProperty("channelGroupThreads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        return new ChannelGroups(strategy, threads);
+    }
+
+    /**
+     * @return Group to open the next channel in, null for the default group
+     */
+    public AsynchronousChannelGroup next() throws IOException {
+        AsynchronousChannelGroup[] all = all();
+        return all[Math.floorMod(next.getAndIncrement(), all.length)];
+    }
+
+    /**
+     * @return Every group, a single null for the default group
+     */
+    public synchronized AsynchronousChannelGroup[] all() throws IOException {
+        if (groups == null) {
+            groups = createGroups();
+        }
+        return groups;
+    }
+
+    /**
+     * Binds one server socket per group. With several groups the sockets share
+     * the address through SO_REUSEPORT and the kernel spreads new connections
+     * across them, so each accepted connection stays in its acceptor's group.
+     * With port 0 the later sockets join the port picked for the first one.
+     */
+    public AsynchronousServerSocketChannel[] bindServers(InetSocketAddress local, SocketTuning tuning) throws IOException {
+        AsynchronousChannelGroup[] all = all();
+        AsynchronousServerSocketChannel[] servers = new AsynchronousServerSocketChannel[all.length];
+        for (int i = 0; i < all.length; i++) {
+            servers[i] = AsynchronousServerSocketChannel.open(all[i]);
+            if (all.length > 1) {
+                servers[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            tuning.bind(servers[i], local);
+            local = (InetSocketAddress) servers[i].getLocalAddress();
+        }
+        return servers;
+    }
+
+    private AsynchronousChannelGroup[] createGroups() throws IOException {
+        ThreadFactory threadFactory = this::newThread;
+        switch (strategy) {
+        case FIXED:
+            return new AsynchronousChannelGroup[] {
+                    AsynchronousChannelGroup.withFixedThreadPool(threads, threadFactory) };
+        case CACHED:
+            return new AsynchronousChannelGroup[] {
+                    AsynchronousChannelGroup.withCachedThreadPool(Executors.newCachedThreadPool(threadFactory), threads) };
+        case SINGLE:
+            return new AsynchronousChannelGroup[] {
+                    AsynchronousChannelGroup.withFixedThreadPool(1, threadFactory) };
+        case SHARDED:
+            AsynchronousChannelGroup[] shards = new AsynchronousChannelGroup[threads];
+            for (int i = 0; i < threads; i++) {
+                shards[i] = AsynchronousChannelGroup.withFixedThreadPool(1, threadFactory);
+            }
+            return shards;
+        default:
+            return new AsynchronousChannelGroup[] { null };
+        }
+    }
+
+    private Thread newThread(Runnable task) {
+        Thread thread = new Thread(task, "aio-" + strategy.toString().toLowerCase() + "-" + threadCount.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    @Override
+    public String toString() {
+        switch (strategy) {
+        case FIXED:
+        case CACHED:
+        case SHARDED:
+            return strategy.toString().toLowerCase() + "(" + threads + ")";
+        default:
+            return strategy.toString().toLowerCase();
+        }
+    }
+}
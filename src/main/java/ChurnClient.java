@@ -0,0 +1,172 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Connects, sends -DrequestsPerConnection requests (default 1, 0 to only
+ * connect) one at a time, closes and starts over, as clients that do not
+ * keep their connections do. Each instance runs one such loop, so
+ * -DnumClients is the number of connections open at any time.
+ *
+ * The connect latency is the time until the handshake has completed, which
+ * includes waiting for room in the server's accept queue but not for the
+ * server to accept. With -DresetOnClose=true connections are closed with a
+ * reset, so no TIME_WAIT sockets pile up and the rate is not capped by
+ * the number of ephemeral ports.
+ */
+public class ChurnClient implements EchoClient {
+
+    static final long ERROR_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final InetSocketAddress remote;
+    private final SocketTuning tuning;
+    private final ThreadMode threadMode;
+    private final Metrics metrics;
+    private final Metrics.Connection connection;
+    private final MessageSizes messageSizes;
+    private final int requestsPerConnection;
+    private final boolean resetOnClose;
+    private final ByteBuffer writeBuffer;
+    private final ByteBuffer readBuffer;
+    private FrameCodec decoder = new FrameCodec();
+    private final FrameCodec.FrameHandler frameHandler = this::onFrame;
+    private final CountDownLatch closeLatch = new CountDownLatch(1);
+    private volatile SocketChannel socket;
+    private volatile boolean closed;
+    private boolean responded;
+
+    public ChurnClient(ClientConfig config, Metrics metrics) {
+        if (config.mode != ClientMode.HALF_DUPLEX) {
+            throw new IllegalArgumentException("ChurnClient does not support " + config.mode + " mode");
+        }
+        this.remote = config.remote;
+        this.tuning = config.tuning;
+        this.threadMode = config.threadMode;
+        this.metrics = metrics;
+        this.connection = metrics.newConnection();
+        this.messageSizes = config.messageSizes;
+        this.requestsPerConnection = config.requestsPerConnection;
+        this.resetOnClose = config.resetOnClose;
+        this.writeBuffer = config.allocateBuffer(messageSizes.getMaxSize());
+        this.readBuffer = config.allocateBuffer(config.readBufferSize);
+    }
+
+    public void start() {
+        threadMode.start(this::churnLoop);
+    }
+
+    public void close() {
+        closed = true;
+        Utils.closeAndLog(socket);
+    }
+
+    public void waitForClose() throws InterruptedException {
+        closeLatch.await();
+    }
+
+    private void churnLoop() {
+        try {
+            while (!closed) {
+                try {
+                    connectAndRequest();
+                } catch (IOException e) {
+                    if (closed) {
+                        break;
+                    }
+                    e.printStackTrace();
+                    // The failed connection may have ended within a frame
+                    decoder = new FrameCodec();
+                    LockSupport.parkNanos(ERROR_BACKOFF_NANOS);
+                } finally {
+                    Utils.closeAndLog(socket);
+                    metrics.recordDisconnect(connection);
+                }
+            }
+        } finally {
+            closeLatch.countDown();
+        }
+    }
+
+    private void connectAndRequest() throws IOException {
+        SocketChannel socket = SocketChannel.open();
+        this.socket = socket;
+        tuning.apply(socket);
+        if (resetOnClose) {
+            socket.setOption(StandardSocketOptions.SO_LINGER, 0);
+        }
+
+        long connectTime = System.nanoTime();
+        socket.connect(remote);
+        metrics.recordConnectLatency(System.nanoTime() - connectTime);
+        metrics.recordConnect(connection);
+
+        readBuffer.clear();
+        for (int i = 0; i < requestsPerConnection; i++) {
+            request(socket);
+        }
+    }
+
+    private void request(SocketChannel socket) throws IOException {
+        long sendTime = System.nanoTime();
+        int frameSize = messageSizes.next();
+        writeBuffer.clear();
+        FrameCodec.encode(writeBuffer, sendTime, sendTime, frameSize);
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            socket.write(writeBuffer);
+        }
+        metrics.recordWrite(frameSize, 1);
+
+        responded = false;
+        while (!responded) {
+            int bytesRead = socket.read(readBuffer);
+            if (bytesRead < 0) {
+                throw new EOFException("Server closed the connection");
+            }
+            metrics.recordRead(bytesRead);
+            readBuffer.flip();
+            decoder.decode(readBuffer, frameHandler);
+            readBuffer.compact();
+        }
+    }
+
+    private void onFrame(long intendedTime, long sendTime, int frameSize) {
+        metrics.recordLatency(connection, System.nanoTime() - intendedTime, frameSize);
+        responded = true;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ClientConfig config = ClientConfig.fromSystemProperties(32, "half");
+        Metrics metrics = new Metrics();
+        metrics.start();
+
+        System.out.format(
+                "Churning %d connections to %s with %d requests each on %s threads\n",
+                config.numClients,
+                config.remote,
+                config.requestsPerConnection,
+                config.threadMode);
+
+        List<ChurnClient> clients = Stream
+                .generate(() -> new ChurnClient(config, metrics))
+                .limit(config.numClients)
+                .collect(Collectors.toList());
+
+        for (ChurnClient client : clients) {
+            client.start();
+        }
+
+        for (ChurnClient client : clients) {
+            client.waitForClose();
+        }
+    }
+}
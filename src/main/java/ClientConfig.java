@@ -0,0 +1,140 @@
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings shared by every client connection of a run.
+ */
+public class ClientConfig {
+    public static final int PORT = Integer.getInteger("port", 4726);
+
+    public InetSocketAddress remote;
+    public ClientMode mode;
+    public int numClients;
+    /** Messages outstanding per connection in {@link ClientMode#PIPELINED} */
+    public int depth;
+    /** Connections opened per second, 0 to open them all at once */
+    public double rampRate;
+    /** Messages per second per connection in {@link ClientMode#OPEN_LOOP} */
+    public double rate;
+    /** Sizes of the frames in bytes, see {@link FrameCodec} */
+    public MessageSizes messageSizes;
+    /** Largest frame the NIO clients copy into their write buffer, larger ones are sent with gathering writes */
+    public int gatherThreshold;
+    public boolean directBuffers;
+    /** Size of each connection's read buffer */
+    public int readBufferSize;
+    /** Most messages coalesced into one write */
+    public int batchMessages;
+    /** Most bytes coalesced into one write, 0 for no limit */
+    public int batchBytes;
+    /** How long a batch waits for more messages before it is written */
+    public long lingerMicros;
+    /** Threads the blocking clients run their connections on */
+    public ThreadMode threadMode;
+    /** Groups the AIO clients open their channels in */
+    public ChannelGroups channelGroups;
+    /** Socket options of every connection */
+    public SocketTuning tuning;
+    /** Requests the churn client sends before closing a connection */
+    public int requestsPerConnection;
+    /** Whether the churn client closes with a reset, which leaves no TIME_WAIT socket behind */
+    public boolean resetOnClose;
+
+    public static ClientConfig fromSystemProperties(int defaultNumClients, String defaultClientMode) {
+        String serverHostname = System.getProperty("server", "localhost");
+        ClientConfig config = new ClientConfig();
+        config.remote = new InetSocketAddress(serverHostname, PORT);
+        config.numClients = Integer.parseInt(System.getProperty("numClients", Integer.toString(defaultNumClients)));
+        config.rampRate = Double.parseDouble(System.getProperty("rampRate", "0"));
+        config.mode = ClientMode.parse(System.getProperty("clientMode", defaultClientMode));
+        config.depth = Math.max(1, Integer.parseInt(System.getProperty("depth", "1")));
+        config.rate = Double.parseDouble(System.getProperty("rate", "1000"));
+        String aggregateRate = System.getProperty("aggregateRate");
+        if (aggregateRate != null) {
+            config.rate = Double.parseDouble(aggregateRate) / config.numClients;
+        }
+        config.messageSizes = MessageSizes.parse(System.getProperty("messageSize", "64"));
+        config.gatherThreshold = Integer.parseInt(System.getProperty("gatherThreshold", "4096"));
+        config.directBuffers = Boolean.getBoolean("directBuffers");
+        config.readBufferSize = Math.max(1024, Integer.parseInt(System.getProperty("readBufferSize", "65536")));
+        config.batchMessages = Math.max(1, Integer.parseInt(System.getProperty("batchMessages", "1")));
+        config.batchBytes = Integer.parseInt(System.getProperty("batchBytes", "0"));
+        config.lingerMicros = Long.parseLong(System.getProperty("lingerMicros", "0"));
+        config.threadMode = ThreadMode.parse(System.getProperty("threadMode", "platform"));
+        config.channelGroups = ChannelGroups.fromSystemProperties();
+        config.tuning = SocketTuning.fromSystemProperties();
+        config.requestsPerConnection = Integer.parseInt(System.getProperty("requestsPerConnection", "1"));
+        config.resetOnClose = Boolean.getBoolean("resetOnClose");
+        return config;
+    }
+
+    public ClientConfig copy() {
+        ClientConfig copy = new ClientConfig();
+        copy.remote = remote;
+        copy.mode = mode;
+        copy.numClients = numClients;
+        copy.depth = depth;
+        copy.rampRate = rampRate;
+        copy.rate = rate;
+        copy.messageSizes = messageSizes;
+        copy.gatherThreshold = gatherThreshold;
+        copy.directBuffers = directBuffers;
+        copy.readBufferSize = readBufferSize;
+        copy.batchMessages = batchMessages;
+        copy.batchBytes = batchBytes;
+        copy.lingerMicros = lingerMicros;
+        copy.threadMode = threadMode;
+        copy.channelGroups = channelGroups;
+        copy.tuning = tuning;
+        copy.requestsPerConnection = requestsPerConnection;
+        copy.resetOnClose = resetOnClose;
+        return copy;
+    }
+
+    /**
+     * @return Most messages a connection keeps outstanding, one when half
+     *         duplex and unlimited when full duplex
+     */
+    public int getWindow() {
+        switch (mode) {
+        case HALF_DUPLEX:
+            return 1;
+        case PIPELINED:
+            return depth;
+        default:
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    public long getSendIntervalNanos() {
+        return (long) (1e9 / rate);
+    }
+
+    /**
+     * @return Most messages per write once both batch limits are applied
+     */
+    public int getMaxBatchMessages() {
+        if (batchBytes <= 0) {
+            return batchMessages;
+        }
+        return Math.max(1, Math.min(batchMessages, batchBytes / messageSizes.getMaxSize()));
+    }
+
+    /**
+     * @return Write buffer size for a {@link FrameBatch} of the largest batch
+     */
+    public int getWriteBufferSize() {
+        return Math.max(
+                1024,
+                FrameBatch.getBufferSize(getMaxBatchMessages(), messageSizes.getMaxSize(), gatherThreshold));
+    }
+
+    public long getLingerNanos() {
+        return TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+    }
+
+    public ByteBuffer allocateBuffer(int capacity) {
+        return directBuffers ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
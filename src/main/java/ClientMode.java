@@ -1,4 +1,20 @@
 public enum ClientMode {
     FULL_DUPLEX,
-    HALF_DUPLEX
+    HALF_DUPLEX,
+    /** Up to {@link ClientConfig#depth} messages outstanding per connection */
+    PIPELINED,
+    OPEN_LOOP;
+
+    public static ClientMode parse(String clientModeString) {
+        switch (clientModeString) {
+        case "full":
+            return FULL_DUPLEX;
+        case "open":
+            return OPEN_LOOP;
+        case "pipelined":
+            return PIPELINED;
+        default:
+            return HALF_DUPLEX;
+        }
+    }
 }
@@ -0,0 +1,26 @@
+public enum ClientType {
+    SYNC(NioSyncClient::new),
+    ASYNC(NioAsyncClient::new),
+    RX(RxClient::new),
+    NETTY(NettyClient::new),
+    MANY(ManyConnectionsClient::new),
+    CHURN(ChurnClient::new);
+
+    interface Factory {
+        EchoClient create(ClientConfig config, Metrics metrics);
+    }
+
+    private final Factory factory;
+
+    ClientType(Factory factory) {
+        this.factory = factory;
+    }
+
+    public EchoClient create(ClientConfig config, Metrics metrics) {
+        return factory.create(config, metrics);
+    }
+
+    public static ClientType parse(String clientTypeString) {
+        return valueOf(clientTypeString.toUpperCase());
+    }
+}
@@ -0,0 +1,58 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Echo buffer of one connection leased from a {@link BufferPool}. It starts
+ * at the smallest size class and doubles whenever a read fills it. Once its
+ * contents have been written back a buffer that is no longer the right size
+ * is returned to the pool, so a connection only holds a large buffer while it
+ * is actually moving a lot of data.
+ */
+public class ConnectionBuffer {
+    private final BufferPool pool;
+    private ByteBuffer buffer;
+    private int nextSize;
+
+    public ConnectionBuffer(BufferPool pool) {
+        this.pool = pool;
+        this.nextSize = pool.getMinSize();
+    }
+
+    /**
+     * @return Buffer to read into, leased if the connection holds none
+     */
+    public ByteBuffer get() {
+        if (buffer == null) {
+            buffer = pool.lease(nextSize);
+        }
+        return buffer;
+    }
+
+    /**
+     * Call once everything read into the buffer has been written back.
+     *
+     * @param filled Whether the last read filled the buffer
+     */
+    public void drained(boolean filled) {
+        int capacity = buffer.capacity();
+        nextSize = filled ? Math.min(capacity * 2, pool.getMaxSize()) : pool.getMinSize();
+        if (nextSize == capacity) {
+            buffer.clear();
+            return;
+        }
+
+        pool.release(buffer);
+        buffer = null;
+    }
+
+    /**
+     * Returns the buffer to the pool, the next {@link #get()} starts again at
+     * the smallest size class.
+     */
+    public void release() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+        nextSize = pool.getMinSize();
+    }
+}
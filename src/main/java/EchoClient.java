@@ -0,0 +1,14 @@
+import java.io.IOException;
+
+/**
+ * A single client connection that sends timestamps to an echo server and
+ * records the round trip in {@link Metrics}.
+ */
+public interface EchoClient {
+
+    void start() throws IOException;
+
+    void close();
+
+    void waitForClose() throws InterruptedException;
+}
@@ -0,0 +1,136 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Frames of one write, laid out for a gathering write. Frames up to the
+ * gather threshold are encoded whole into the connection's write buffer.
+ * Larger frames only have their header there, and their padding is a view of
+ * one shared zero-filled buffer. A connection therefore never needs a buffer
+ * as large as its largest message, and large messages are never copied.
+ *
+ * The views are reused from batch to batch, so encoding allocates nothing
+ * once the batch has seen its largest layout.
+ */
+public class FrameBatch {
+    static final int PADDING_SIZE = 1 << 20;
+    static final ByteBuffer PADDING = ByteBuffer.allocateDirect(PADDING_SIZE).asReadOnlyBuffer();
+
+    private final ByteBuffer buffer;
+    private final int gatherThreshold;
+    private ByteBuffer[] buffers = new ByteBuffer[0];
+    private ByteBuffer[] bufferViews = new ByteBuffer[0];
+    private ByteBuffer[] paddingViews = new ByteBuffer[0];
+    private int count;
+    private int bufferViewCount;
+    private int paddingViewCount;
+    private boolean lastIsBuffer;
+    private int messages;
+    private long bytes;
+
+    /**
+     * @param buffer Write buffer of the connection, at least {@link #getBufferSize} bytes
+     * @param gatherThreshold Largest frame encoded whole into the write buffer
+     */
+    public FrameBatch(ByteBuffer buffer, int gatherThreshold) {
+        this.buffer = buffer;
+        this.gatherThreshold = Math.max(FrameCodec.MIN_FRAME_SIZE, gatherThreshold);
+    }
+
+    /**
+     * @return Write buffer size that holds a batch of frames of at most maxFrameSize
+     */
+    public static int getBufferSize(int maxMessages, int maxFrameSize, int gatherThreshold) {
+        return maxMessages * Math.max(FrameCodec.MIN_FRAME_SIZE, Math.min(maxFrameSize, gatherThreshold));
+    }
+
+    public void clear() {
+        buffer.clear();
+        count = 0;
+        bufferViewCount = 0;
+        paddingViewCount = 0;
+        lastIsBuffer = false;
+        messages = 0;
+        bytes = 0;
+    }
+
+    public void add(long intendedTime, long sendTime, int frameSize) {
+        int start = buffer.position();
+        if (frameSize <= gatherThreshold) {
+            FrameCodec.encode(buffer, intendedTime, sendTime, frameSize);
+            addBufferView(start, buffer.position());
+        } else {
+            FrameCodec.encodeHeader(buffer, intendedTime, sendTime, frameSize);
+            addBufferView(start, buffer.position());
+            for (int padding = frameSize - FrameCodec.MIN_FRAME_SIZE; padding > 0; padding -= PADDING_SIZE) {
+                addPaddingView(Math.min(padding, PADDING_SIZE));
+            }
+        }
+        messages++;
+        bytes += frameSize;
+    }
+
+    private void addBufferView(int start, int end) {
+        if (lastIsBuffer) {
+            buffers[count - 1].limit(end);
+            return;
+        }
+
+        if (bufferViewCount == bufferViews.length) {
+            bufferViews = Arrays.copyOf(bufferViews, bufferViewCount * 2 + 1);
+        }
+        if (bufferViews[bufferViewCount] == null) {
+            bufferViews[bufferViewCount] = buffer.duplicate();
+        }
+        ByteBuffer view = bufferViews[bufferViewCount++];
+        view.limit(end).position(start);
+        append(view);
+        lastIsBuffer = true;
+    }
+
+    private void addPaddingView(int length) {
+        if (paddingViewCount == paddingViews.length) {
+            paddingViews = Arrays.copyOf(paddingViews, paddingViewCount * 2 + 1);
+        }
+        if (paddingViews[paddingViewCount] == null) {
+            paddingViews[paddingViewCount] = PADDING.duplicate();
+        }
+        ByteBuffer view = paddingViews[paddingViewCount++];
+        view.limit(length).position(0);
+        append(view);
+        lastIsBuffer = false;
+    }
+
+    private void append(ByteBuffer view) {
+        if (count == buffers.length) {
+            buffers = Arrays.copyOf(buffers, count * 2 + 1);
+        }
+        buffers[count++] = view;
+    }
+
+    /**
+     * @return Buffers to write, the first {@link #getCount()} are in use
+     */
+    public ByteBuffer[] getBuffers() {
+        return buffers;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getMessages() {
+        return messages;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return Whether part of the batch has not been written yet. A gathering
+     *         write drains the buffers in order, so only the last one is checked.
+     */
+    public boolean hasRemaining() {
+        return count > 0 && buffers[count - 1].hasRemaining();
+    }
+}
@@ -0,0 +1,87 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Length-prefixed frame format spoken by every client.
+ *
+ * A frame is a 4 byte length of the rest of the frame, the intended and the
+ * actual send time in nanoseconds, then padding up to the frame size. Frames
+ * are encoded into and decoded from caller-owned buffers (heap or direct)
+ * without allocating. An instance holds the decoding state of one
+ * connection, so frames may be split across any number of reads.
+ */
+public class FrameCodec {
+    public static final int LENGTH_SIZE = 4;
+    public static final int MIN_FRAME_SIZE = LENGTH_SIZE + 16;
+
+    public interface FrameHandler {
+        void onFrame(long intendedTime, long sendTime, int frameSize);
+    }
+
+    private boolean inFrame;
+    private int frameSize;
+    private long intendedTime;
+    private long sendTime;
+    private int paddingRemaining;
+
+    /**
+     * Writes a frame at the buffer's position. The padding is not cleared, it
+     * holds whatever the buffer held before.
+     *
+     * @param buffer Buffer with at least frameSize bytes remaining
+     * @param frameSize Total size of the frame including the length
+     */
+    public static void encode(ByteBuffer buffer, long intendedTime, long sendTime, int frameSize) {
+        encodeHeader(buffer, intendedTime, sendTime, frameSize);
+        buffer.position(buffer.position() + frameSize - MIN_FRAME_SIZE);
+    }
+
+    /**
+     * Writes the first {@link #MIN_FRAME_SIZE} bytes of a frame, the padding
+     * is left to the caller, see {@link FrameBatch}.
+     */
+    public static void encodeHeader(ByteBuffer buffer, long intendedTime, long sendTime, int frameSize) {
+        buffer.putInt(frameSize - LENGTH_SIZE);
+        buffer.putLong(intendedTime);
+        buffer.putLong(sendTime);
+    }
+
+    /**
+     * Consumes every complete frame between the buffer's position and limit.
+     * A partial frame header is left in the buffer for the caller to compact,
+     * the padding of a partial frame is consumed and remembered.
+     *
+     * @param buffer Buffer in read mode
+     * @param handler Called once for each frame once its last byte has been consumed
+     * @return Number of frames completed
+     */
+    public int decode(ByteBuffer buffer, FrameHandler handler) {
+        int frames = 0;
+        while (true) {
+            if (!inFrame) {
+                if (buffer.remaining() < MIN_FRAME_SIZE) {
+                    return frames;
+                }
+
+                frameSize = buffer.getInt() + LENGTH_SIZE;
+                if (frameSize < MIN_FRAME_SIZE) {
+                    throw new IllegalStateException("Invalid frame size " + frameSize);
+                }
+                intendedTime = buffer.getLong();
+                sendTime = buffer.getLong();
+                paddingRemaining = frameSize - MIN_FRAME_SIZE;
+                inFrame = true;
+            }
+
+            int skip = Math.min(paddingRemaining, buffer.remaining());
+            buffer.position(buffer.position() + skip);
+            paddingRemaining -= skip;
+            if (paddingRemaining > 0) {
+                return frames;
+            }
+
+            inFrame = false;
+            frames++;
+            handler.onFrame(intendedTime, sendTime, frameSize);
+        }
+    }
+}
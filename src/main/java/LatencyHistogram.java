@@ -0,0 +1,141 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fixed-size log-linear histogram of latency values in nanoseconds.
+ *
+ * Each power of two is split into 128 linear sub-buckets, so any recorded
+ * value is reported within 1% of its true value. Values above ~18 minutes are
+ * clamped into the last bucket. Not thread safe, see {@link LatencyRecorder}.
+ */
+public class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 7;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int MAX_VALUE_BITS = 40;
+    static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+    static final int BUCKET_COUNT = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    final long[] counts = new long[BUCKET_COUNT];
+    long totalCount;
+    long maxValue;
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return value < 0 ? 0 : (int) value;
+        }
+
+        if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    static long highestValueInBucket(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        long subBucket = (index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public void record(long value) {
+        counts[bucketIndex(value)]++;
+        totalCount++;
+        if (value > maxValue) {
+            maxValue = value;
+        }
+    }
+
+    void addCount(int index, long count) {
+        counts[index] += count;
+        totalCount += count;
+    }
+
+    void recordMax(long value) {
+        if (value > maxValue) {
+            maxValue = value;
+        }
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        recordMax(other.maxValue);
+    }
+
+    /**
+     * Writes the maximum and the non-empty buckets, for {@link #readFrom} in
+     * another process. Merging the buckets keeps the percentiles exact to the
+     * bucket resolution, unlike combining percentiles.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        int usedBuckets = 0;
+        for (long count : counts) {
+            if (count != 0) {
+                usedBuckets++;
+            }
+        }
+        out.writeLong(maxValue);
+        out.writeInt(usedBuckets);
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (counts[i] != 0) {
+                out.writeInt(i);
+                out.writeLong(counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds a histogram written by {@link #writeTo}.
+     */
+    public void readFrom(DataInput in) throws IOException {
+        recordMax(in.readLong());
+        int usedBuckets = in.readInt();
+        for (int i = 0; i < usedBuckets; i++) {
+            addCount(in.readInt(), in.readLong());
+        }
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        maxValue = 0;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * Finds the value below which the given percentage of recorded values fall.
+     *
+     * @param percentile Percentile between 0 and 100
+     * @return Highest value equivalent to the percentile, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(highestValueInBucket(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Appends every latency sample to memory-mapped segment files for offline
+ * analysis with {@link LatencyLogReader}.
+ *
+ * A record is the time since the log was opened, the connection id and the
+ * latency, {@link #RECORD_SIZE} bytes in little-endian order. Recording threads
+ * claim their slot with a single atomic add and write straight into the
+ * mapping, so nothing is allocated per sample. Once a segment is full the
+ * next one is mapped; samples beyond the last segment are counted as dropped.
+ * Full segments stay mapped, as a slow writer may still be filling its slot,
+ * until close forces every one of them to disk.
+ * A small {@link #META_FILE} written on close holds the wall-clock start time
+ * and the number of records.
+ */
+public class LatencyLog implements AutoCloseable {
+    public static final int RECORD_SIZE = 8 + 4 + 8;
+    public static final String META_FILE = "latency.meta";
+
+    private static final AtomicInteger logCounter = new AtomicInteger();
+
+    private final Path directory;
+    private final int segmentSize;
+    private final AtomicReferenceArray<MappedByteBuffer> segments;
+    private final AtomicLong position = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+    private volatile boolean closed;
+
+    /**
+     * @param directory Directory for the segment files, created if missing
+     * @param segmentRecords Records per segment file
+     * @param maxSegments Most segment files to write
+     */
+    public LatencyLog(Path directory, int segmentRecords, int maxSegments) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentRecords * RECORD_SIZE;
+        this.segments = new AtomicReferenceArray<>(maxSegments);
+        segments.set(0, mapSegment(0));
+    }
+
+    /**
+     * @return Log in a new directory under -DlatencyLog, or null if the property is not set
+     */
+    public static LatencyLog fromSystemProperties() {
+        String root = System.getProperty("latencyLog");
+        if (root == null) {
+            return null;
+        }
+        int segmentRecords = Integer.parseInt(System.getProperty("latencyLogSegmentRecords", "4194304"));
+        int maxSegments = Integer.parseInt(System.getProperty("latencyLogMaxSegments", "256"));
+        String name = String.format("run-%d-%d", System.currentTimeMillis(), logCounter.getAndIncrement());
+        try {
+            return new LatencyLog(Paths.get(root, name), segmentRecords, maxSegments);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open latency log in " + root, e);
+        }
+    }
+
+    public static Path segmentPath(Path directory, int segment) {
+        return directory.resolve(String.format("latency-%05d.log", segment));
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public void record(int connectionId, long latencyInNanos) {
+        long offset = position.getAndAdd(RECORD_SIZE);
+        int segmentIndex = (int) (offset / segmentSize);
+        if (segmentIndex >= segments.length()) {
+            dropped.getAndIncrement();
+            return;
+        }
+
+        MappedByteBuffer segment = segment(segmentIndex);
+        int index = (int) (offset % segmentSize);
+        segment.putLong(index, System.nanoTime() - startNanos);
+        segment.putInt(index + 8, connectionId);
+        segment.putLong(index + 12, latencyInNanos);
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private MappedByteBuffer segment(int segmentIndex) {
+        MappedByteBuffer segment = segments.get(segmentIndex);
+        if (segment != null) {
+            return segment;
+        }
+
+        synchronized (this) {
+            segment = segments.get(segmentIndex);
+            if (segment == null) {
+                try {
+                    segment = mapSegment(segmentIndex);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Cannot map latency log segment " + segmentIndex, e);
+                }
+                segments.set(segmentIndex, segment);
+            }
+            return segment;
+        }
+    }
+
+    private MappedByteBuffer mapSegment(int segmentIndex) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                segmentPath(directory, segmentIndex),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            return segment;
+        }
+    }
+
+    /**
+     * Writes the meta file. Samples recorded afterwards are not counted.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (int i = 0; i < segments.length(); i++) {
+            MappedByteBuffer segment = segments.get(i);
+            if (segment != null) {
+                segment.force();
+            }
+        }
+        long records = Math.min(position.get(), (long) segments.length() * segmentSize) / RECORD_SIZE;
+        try (DataOutputStream meta = new DataOutputStream(Files.newOutputStream(directory.resolve(META_FILE)))) {
+            meta.writeLong(startMillis);
+            meta.writeLong(records);
+            meta.writeInt(segmentSize / RECORD_SIZE);
+            meta.writeLong(dropped.get());
+        }
+    }
+}
@@ -0,0 +1,160 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * Offline analysis of a {@link LatencyLog}: percentiles over a time window,
+ * a time series of the window and the connections with the worst latency.
+ */
+public class LatencyLogReader {
+
+    /**
+     * Receives every record of a log.
+     */
+    public interface RecordHandler {
+        void onRecord(long timeInNanos, int connectionId, long latencyInNanos);
+    }
+
+    /**
+     * Feeds every record of a log to a handler.
+     *
+     * @return Wall-clock time in milliseconds when the log was opened, 0 if the log was not closed
+     */
+    public static long read(Path directory, RecordHandler handler) throws IOException {
+        long startMillis = 0;
+        long records = Long.MAX_VALUE;
+        Path meta = directory.resolve(LatencyLog.META_FILE);
+        if (Files.exists(meta)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(meta))) {
+                startMillis = in.readLong();
+                records = in.readLong();
+            }
+        }
+
+        for (int segment = 0; records > 0; segment++) {
+            Path path = LatencyLog.segmentPath(directory, segment);
+            if (!Files.exists(path)) {
+                break;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                while (records > 0 && buffer.remaining() >= LatencyLog.RECORD_SIZE) {
+                    long time = buffer.getLong();
+                    int connectionId = buffer.getInt();
+                    long latency = buffer.getLong();
+                    records--;
+                    if (time == 0 && latency == 0) {
+                        // Slot never written, e.g. at the end of a log that was not closed
+                        continue;
+                    }
+                    handler.onRecord(time, connectionId, latency);
+                }
+            }
+        }
+        return startMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Paths.get(System.getProperty("log", args.length > 0 ? args[0] : "."));
+        long from = secondsToNanos(System.getProperty("from", "0"));
+        long to = System.getProperty("to") == null ? Long.MAX_VALUE : secondsToNanos(System.getProperty("to"));
+        long interval = secondsToNanos(System.getProperty("interval", "1"));
+        int top = Integer.parseInt(System.getProperty("top", "20"));
+
+        LatencyHistogram total = new LatencyHistogram();
+        Map<Long, LatencyHistogram> series = new TreeMap<>();
+        ConnectionStats connections = new ConnectionStats();
+
+        long startMillis = read(directory, (time, connectionId, latency) -> {
+            if (time < from || time >= to) {
+                return;
+            }
+            total.record(latency);
+            series.computeIfAbsent(time / interval, i -> new LatencyHistogram()).record(latency);
+            connections.record(connectionId, latency);
+        });
+
+        System.out.printf("Latency log %s, started at %tc\n", directory, startMillis);
+        System.out.printf("All: %s\n", describe(total));
+
+        System.out.println("Time series:");
+        for (Map.Entry<Long, LatencyHistogram> entry : series.entrySet()) {
+            System.out.printf(
+                    "  %8.1fs %s\n",
+                    (double) (entry.getKey() * interval) * 1e-9,
+                    describe(entry.getValue()));
+        }
+
+        System.out.printf("Connections by max latency (top %d of %d):\n", top, connections.count());
+        for (int id : connections.worst(top)) {
+            System.out.printf(
+                    "  %6d count %d mean %.3fms max %.3fms\n",
+                    id,
+                    connections.counts[id],
+                    (double) connections.sums[id] / connections.counts[id] * 1e-6,
+                    (double) connections.maxes[id] * 1e-6);
+        }
+    }
+
+    static long secondsToNanos(String seconds) {
+        return (long) (Double.parseDouble(seconds) * 1e9);
+    }
+
+    static String describe(LatencyHistogram histogram) {
+        return String.format(
+                "count %d P50 %.3fms P90 %.3fms P99 %.3fms P99.9 %.3fms P99.99 %.3fms Max %.3fms",
+                histogram.getTotalCount(),
+                (double) histogram.getValueAtPercentile(50) * 1e-6,
+                (double) histogram.getValueAtPercentile(90) * 1e-6,
+                (double) histogram.getValueAtPercentile(99) * 1e-6,
+                (double) histogram.getValueAtPercentile(99.9) * 1e-6,
+                (double) histogram.getValueAtPercentile(99.99) * 1e-6,
+                (double) histogram.getMaxValue() * 1e-6);
+    }
+
+    /**
+     * Count, sum and max per connection, indexed by the dense connection ids.
+     */
+    static class ConnectionStats {
+        long[] counts = new long[1024];
+        long[] sums = new long[1024];
+        long[] maxes = new long[1024];
+
+        void record(int connectionId, long latency) {
+            if (connectionId >= counts.length) {
+                int length = Math.max(connectionId + 1, counts.length * 2);
+                counts = Arrays.copyOf(counts, length);
+                sums = Arrays.copyOf(sums, length);
+                maxes = Arrays.copyOf(maxes, length);
+            }
+            counts[connectionId]++;
+            sums[connectionId] += latency;
+            maxes[connectionId] = Math.max(maxes[connectionId], latency);
+        }
+
+        long count() {
+            return Arrays.stream(counts).filter(count -> count > 0).count();
+        }
+
+        int[] worst(int limit) {
+            return IntStream.range(0, counts.length)
+                    .filter(id -> counts[id] > 0)
+                    .boxed()
+                    .sorted((a, b) -> Long.compare(maxes[b], maxes[a]))
+                    .limit(limit)
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+    }
+}
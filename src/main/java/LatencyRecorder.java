@@ -0,0 +1,52 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Lock-free latency recorder that spreads recording threads over striped
+ * histogram buckets. Memory use is fixed regardless of the number of samples.
+ */
+public class LatencyRecorder {
+
+    final AtomicLongArray[] stripes;
+    final int stripeMask;
+    final LongAccumulator maxValue = new LongAccumulator(Math::max, 0);
+
+    public LatencyRecorder() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public LatencyRecorder(int concurrency) {
+        int stripeCount = 1;
+        while (stripeCount < concurrency) {
+            stripeCount <<= 1;
+        }
+
+        stripes = new AtomicLongArray[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+        }
+        stripeMask = stripeCount - 1;
+    }
+
+    public void record(long latencyInNanos) {
+        int stripe = (int) Thread.currentThread().threadId() & stripeMask;
+        stripes[stripe].getAndIncrement(LatencyHistogram.bucketIndex(latencyInNanos));
+        maxValue.accumulate(latencyInNanos);
+    }
+
+    /**
+     * Moves everything recorded since the last drain into a histogram.
+     *
+     * @param histogram Histogram that receives the recorded values
+     */
+    public void drainTo(LatencyHistogram histogram) {
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+                if (stripe.get(i) != 0) {
+                    histogram.addCount(i, stripe.getAndSet(i, 0));
+                }
+            }
+        }
+        histogram.recordMax(maxValue.getThenReset());
+    }
+}
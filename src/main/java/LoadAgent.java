@@ -0,0 +1,111 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates load on behalf of a {@link LoadCoordinator}. Connects to
+ * -Dcoordinator=HOST:PORT, retrying until it is up, then runs the workload
+ * the coordinator sends and hands over what it measured whenever asked,
+ * without printing anything itself.
+ *
+ * The coordinator sends commands as UTF strings:
+ * <ul>
+ * <li>CONFIG, followed by a count and that many key and value pairs, which
+ * become system properties. The agent creates the clients and replies READY.</li>
+ * <li>START starts the clients.</li>
+ * <li>SNAPSHOT is answered with a {@link Metrics.Snapshot} of everything
+ * recorded since the previous one.</li>
+ * <li>STOP, or the coordinator going away, closes the clients and the
+ * latency log, if any, and exits.</li>
+ * </ul>
+ */
+public class LoadAgent {
+
+    static final long CONNECT_RETRY_MILLIS = 100;
+    static final long CONNECT_TIMEOUT_MILLIS = 30_000;
+
+    public static void main(String[] args) throws Exception {
+        String[] coordinator = System.getProperty("coordinator", "localhost:4727").split(":");
+        Socket socket = connect(coordinator[0], Integer.parseInt(coordinator[1]));
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        List<EchoClient> clients = new ArrayList<>();
+        Metrics metrics = null;
+        try {
+            while (true) {
+                String command = in.readUTF();
+                switch (command) {
+                case "CONFIG":
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        System.setProperty(in.readUTF(), in.readUTF());
+                    }
+                    // Nothing may read the client settings before they are set, as some are static
+                    ClientType clientType = ClientType.parse(System.getProperty("client", "sync"));
+                    ClientConfig config = ClientConfig.fromSystemProperties(12, "half");
+                    metrics = new Metrics();
+                    for (int i = 0; i < config.numClients; i++) {
+                        clients.add(clientType.create(config, metrics));
+                    }
+                    System.out.format(
+                            "Agent ready with %d %s clients against %s using %s\n",
+                            config.numClients,
+                            clientType,
+                            config.remote,
+                            config.mode);
+                    out.writeUTF("READY");
+                    break;
+                case "START":
+                    // The coordinator prints the updates, but the MXBean and latency log are per agent
+                    metrics.start(false);
+                    for (EchoClient client : clients) {
+                        client.start();
+                    }
+                    break;
+                case "SNAPSHOT":
+                    metrics.takeSnapshot().writeTo(out);
+                    break;
+                case "STOP":
+                    return;
+                default:
+                    throw new IOException("Unknown command " + command);
+                }
+                out.flush();
+            }
+        } catch (EOFException e) {
+            System.out.println("Coordinator went away");
+        } finally {
+            for (EchoClient client : clients) {
+                client.close();
+            }
+            if (metrics != null) {
+                metrics.stop();
+            }
+            Utils.closeAndLog(socket);
+            System.exit(0);
+        }
+    }
+
+    static Socket connect(String host, int port) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                return new Socket(host, port);
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(CONNECT_RETRY_MILLIS);
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a server from several {@link LoadAgent} processes, for when one
+ * client JVM cannot saturate it. Forks -Dagents agents (default 2) on this
+ * host, and waits for -DremoteAgents more (default 0) started by hand on other
+ * machines with -Dcoordinator=HOST:PORT, listening on -DcoordinatorPort
+ * (default 0, any free port, which is printed).
+ *
+ * Every agent runs the workload of the coordinator's own system properties,
+ * e.g. -Dclient, -DnumClients and -DclientMode, except that -DnumClients is
+ * per agent and -DaggregateRate is split between the agents. Once all are
+ * ready they are started together. Every second the coordinator pulls the
+ * latency histograms and counters of every agent, merges them bucket by bucket
+ * and prints one {@link Metrics} line, so percentiles are those of all
+ * messages rather than an average of each agent's.
+ *
+ * With -Dduration (default 0, run until killed) the totals after -Dwarmup
+ * seconds (default 5) are appended to -Doutput like {@link BenchmarkDriver} does.
+ */
+public class LoadCoordinator {
+
+    /**
+     * Properties that configure the coordinator rather than the agents
+     */
+    static final List<String> COORDINATOR_PROPERTIES =
+            List.of("agents", "remoteAgents", "coordinatorPort", "coordinator", "warmup", "duration", "output");
+
+    static class Agent {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Agent(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void send(String command) throws IOException {
+            out.writeUTF(command);
+            out.flush();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int localAgents = Integer.parseInt(System.getProperty("agents", "2"));
+        int remoteAgents = Integer.parseInt(System.getProperty("remoteAgents", "0"));
+        int port = Integer.parseInt(System.getProperty("coordinatorPort", "0"));
+        int warmupSeconds = Integer.parseInt(System.getProperty("warmup", "5"));
+        int durationSeconds = Integer.parseInt(System.getProperty("duration", "0"));
+        String output = System.getProperty("output", "results.json");
+        int agentCount = localAgents + remoteAgents;
+
+        List<Process> processes = new ArrayList<>();
+        List<Agent> agents = new ArrayList<>();
+        try (ServerSocket server = new ServerSocket()) {
+            server.bind(new InetSocketAddress(port));
+            System.out.printf("Coordinator listening on %s, waiting for %d agents\n", server.getLocalSocketAddress(), agentCount);
+
+            Path logs = Files.createDirectories(Paths.get("build", "agents"));
+            for (int i = 0; i < localAgents; i++) {
+                processes.add(RegressionSuite.fork(
+                        "LoadAgent",
+                        logs.resolve("agent-" + i + ".log"),
+                        "-Dcoordinator=localhost:" + server.getLocalPort()));
+            }
+            while (agents.size() < agentCount) {
+                Agent agent = new Agent(server.accept());
+                agents.add(agent);
+                System.out.printf("Agent %d connected from %s\n", agents.size(), agent.socket.getRemoteSocketAddress());
+            }
+        }
+
+        try {
+            Map<String, String> workload = workload(agentCount);
+            for (Agent agent : agents) {
+                agent.out.writeUTF("CONFIG");
+                agent.out.writeInt(workload.size());
+                for (Map.Entry<String, String> property : workload.entrySet()) {
+                    agent.out.writeUTF(property.getKey());
+                    agent.out.writeUTF(property.getValue());
+                }
+                agent.out.flush();
+            }
+            for (Agent agent : agents) {
+                String reply = agent.in.readUTF();
+                if (!reply.equals("READY")) {
+                    throw new IOException("Agent replied " + reply);
+                }
+            }
+
+            Metrics metrics = new Metrics();
+            metrics.start(false);
+            for (Agent agent : agents) {
+                agent.send("START");
+            }
+            System.out.printf(
+                    "Started %d agents with %s clients each, warm-up %ds, duration %ds\n",
+                    agentCount,
+                    workload.getOrDefault("numClients", "12"),
+                    warmupSeconds,
+                    durationSeconds);
+
+            long startTime = System.nanoTime();
+            long warmupEnd = startTime + TimeUnit.SECONDS.toNanos(warmupSeconds);
+            long end = warmupEnd + TimeUnit.SECONDS.toNanos(durationSeconds);
+            boolean warm = false;
+            for (long tick = 1; durationSeconds == 0 || !warm || System.nanoTime() < end; tick++) {
+                long sleepNanos = startTime + TimeUnit.SECONDS.toNanos(tick) - System.nanoTime();
+                if (sleepNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                }
+                pull(agents, metrics);
+                metrics.displayUpdate();
+                if (!warm && System.nanoTime() >= warmupEnd) {
+                    metrics.resetTotals();
+                    warm = true;
+                }
+            }
+            pull(agents, metrics);
+
+            BenchmarkResult result = metrics.getTotals();
+            result.parameters.put("client", workload.getOrDefault("client", "sync"));
+            result.parameters.put("clientMode", workload.getOrDefault("clientMode", "half"));
+            result.parameters.put("agents", Integer.toString(agentCount));
+            result.parameters.put("connections", Integer.toString(metrics.getConnections()));
+            result.parameters.put("label", System.getProperty("label", ""));
+            result.appendTo(output);
+            System.out.printf("Wrote results to %s\n", output);
+            System.out.println(result.toJson());
+        } finally {
+            for (Agent agent : agents) {
+                try {
+                    agent.send("STOP");
+                } catch (IOException e) {
+                    // Already gone
+                }
+                Utils.closeAndLog(agent.socket);
+            }
+            for (Process process : processes) {
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroyForcibly().waitFor();
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Asks every agent for a snapshot before reading any, so the agents answer
+     * in parallel and the intervals line up as closely as possible.
+     */
+    static void pull(List<Agent> agents, Metrics metrics) throws IOException {
+        for (Agent agent : agents) {
+            agent.send("SNAPSHOT");
+        }
+        for (Agent agent : agents) {
+            metrics.add(Metrics.Snapshot.readFrom(agent.in));
+        }
+    }
+
+    /**
+     * @return The properties the agents run with: this project's settings,
+     *         which unlike the JVM's have no dots in their names
+     */
+    static Map<String, String> workload(int agentCount) {
+        Map<String, String> workload = new LinkedHashMap<>();
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (!name.contains(".") && !COORDINATOR_PROPERTIES.contains(name)) {
+                workload.put(name, System.getProperty(name));
+            }
+        }
+        String aggregateRate = workload.get("aggregateRate");
+        if (aggregateRate != null) {
+            workload.put("aggregateRate", Double.toString(Double.parseDouble(aggregateRate) / agentCount));
+        }
+        return workload;
+    }
+}
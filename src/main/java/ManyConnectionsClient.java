@@ -1,159 +1,284 @@
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
 import java.io.IOException;
-import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 import java.util.List;
-import java.util.Random;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
-import rx.Observable;
+/**
+ * Simulates a large number of mostly idle connections that each send a
+ * message after a random delay.
+ *
+ * Per-connection state is kept small so that 100k+ connections fit in one
+ * JVM: every delay, including the connect ramp, runs on one shared
+ * hashed-wheel timer, the completion handlers are shared, and buffers are
+ * leased from a shared pool only while a write or read is outstanding.
+ */
+public class ManyConnectionsClient implements EchoClient, FrameCodec.FrameHandler, TimerTask {
+
+    static final int MAX_FIRST_WRITE_DELAY_MILLIS = 5000;
+    static final int MAX_WRITE_DELAY_MILLIS = 1000;
 
-public class ManyConnectionsClient {
+    static final Timer timer = new HashedWheelTimer(
+            new DefaultThreadFactory("many-connections-timer", true),
+            10,
+            TimeUnit.MILLISECONDS,
+            1024);
+    static final BufferPool bufferPool = new BufferPool(64, 1 << 24);
+    static final AtomicLong nextConnectTime = new AtomicLong(Long.MIN_VALUE);
 
-    final CountDownLatch quitLatch = new CountDownLatch(1);
-    final Random rand = new Random();
-    final ByteBuffer readBuffer = ByteBuffer.allocate(65536);
-    final ByteBuffer writeBuffer = ByteBuffer.allocate(1024);
+    final ClientConfig config;
     final Metrics metrics;
-    final ClientMode mode;
-    final InetSocketAddress remote;
+    final Metrics.Connection connection;
+    final FrameCodec decoder = new FrameCodec();
 
     AsynchronousSocketChannel socket;
+    ByteBuffer readBuffer;
+    ByteBuffer writeBuffer;
+    boolean connected;
+    boolean closed;
 
-    public ManyConnectionsClient(InetSocketAddress remote, ClientMode mode, Metrics metrics) {
-        this.remote = remote;
+    public ManyConnectionsClient(ClientConfig config, Metrics metrics) {
+        if (config.mode == ClientMode.OPEN_LOOP || config.mode == ClientMode.PIPELINED) {
+            throw new IllegalArgumentException("ManyConnectionsClient does not support " + config.mode + " mode");
+        }
+        this.config = config;
         this.metrics = metrics;
-        this.mode = mode;
+        this.connection = metrics.newConnection();
+        metrics.setParameter("channelGroup", config.channelGroups.toString());
     }
 
     public void start() throws IOException {
-        socket = AsynchronousSocketChannel.open();
-        beginConnect();
+        socket = AsynchronousSocketChannel.open(config.channelGroups.next());
+        config.tuning.apply(socket);
+        long delay = reserveConnectSlot(config.rampRate);
+        if (delay > 0) {
+            timer.newTimeout(this, delay, TimeUnit.NANOSECONDS);
+        } else {
+            beginConnect();
+        }
     }
 
-    public void waitForClose() throws InterruptedException {
-        quitLatch.await();
+    /**
+     * Spaces connects of all clients evenly at the given rate.
+     *
+     * @return Nanoseconds until the calling client may connect
+     */
+    static long reserveConnectSlot(double rampRate) {
+        if (rampRate <= 0) {
+            return 0;
+        }
+
+        long interval = (long) (1e9 / rampRate);
+        long now = System.nanoTime();
+        long slot = nextConnectTime.getAndAccumulate(now, (next, t) -> Math.max(next, t) + interval);
+        return Math.max(slot, now) - now;
     }
 
-    private void close() {
+    public synchronized void waitForClose() throws InterruptedException {
+        while (!closed) {
+            wait();
+        }
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
         Utils.closeAndLog(socket);
-        quitLatch.countDown();
-        metrics.recordDisconnect();
+        if (connected) {
+            metrics.recordDisconnect(connection);
+        }
+    }
+
+    /**
+     * Timer callback, connects on the first call and sends a message on every
+     * later one.
+     */
+    @Override
+    public void run(Timeout timeout) {
+        if (connected) {
+            beginWrite();
+        } else {
+            beginConnect();
+        }
+    }
+
+    private void scheduleWrite(int maxDelayMillis) {
+        int delay = ThreadLocalRandom.current().nextInt(maxDelayMillis);
+        timer.newTimeout(this, delay, TimeUnit.MILLISECONDS);
     }
 
     private void beginConnect() {
-        socket.connect(remote, null, endConnect);
+        socket.connect(config.remote, this, endConnect);
     }
 
     private void beginWrite() {
+        if (!socket.isOpen()) {
+            return;
+        }
+
         long now = System.nanoTime();
-        writeBuffer.clear();
-        writeBuffer.putLong(now);
+        int messageSize = config.messageSizes.next();
+        writeBuffer = bufferPool.lease(messageSize);
+        FrameCodec.encode(writeBuffer, now, now, messageSize);
         writeBuffer.flip();
-        socket.write(writeBuffer, null, endWrite);
+        socket.write(writeBuffer, this, endWrite);
     }
 
     private void beginRead() {
-        socket.read(readBuffer, null, endRead);
+        if (readBuffer == null) {
+            readBuffer = bufferPool.lease(Math.min(config.messageSizes.getMaxSize(), config.readBufferSize));
+        }
+        socket.read(readBuffer, this, endRead);
     }
 
-    private CompletionHandler<Void, Void> endConnect = new CompletionHandler<Void, Void>() {
+    private void releaseWriteBuffer() {
+        bufferPool.release(writeBuffer);
+        writeBuffer = null;
+    }
+
+    /**
+     * @param force Whether to release a buffer that still holds part of a frame
+     */
+    private void releaseReadBuffer(boolean force) {
+        if (force || readBuffer.position() == 0) {
+            bufferPool.release(readBuffer);
+            readBuffer = null;
+        }
+    }
+
+    @Override
+    public void onFrame(long intendedTime, long sendTime, int frameSize) {
+        metrics.recordLatency(connection, System.nanoTime() - intendedTime, frameSize);
+    }
+
+    static final CompletionHandler<Void, ManyConnectionsClient> endConnect = new CompletionHandler<Void, ManyConnectionsClient>() {
 
         @Override
-        public void failed(Throwable exc, Void attachment) {
+        public void failed(Throwable exc, ManyConnectionsClient client) {
             exc.printStackTrace();
-            close();
+            client.close();
         }
 
         @Override
-        public void completed(Void result, Void attachment) {
-            metrics.recordConnect();
+        public void completed(Void result, ManyConnectionsClient client) {
+            client.connected = true;
+            client.metrics.recordConnect(client.connection);
+            client.scheduleWrite(MAX_FIRST_WRITE_DELAY_MILLIS);
 
-            int delay = rand.nextInt(5000);
-            Observable.timer(delay, TimeUnit.MILLISECONDS).subscribe(i -> beginWrite());
-
-            switch (mode) {
+            switch (client.config.mode) {
             case FULL_DUPLEX:
-                beginRead();
+                client.beginRead();
                 break;
-            case HALF_DUPLEX:
+            default:
                 break;
             }
         }
     };
 
-    private CompletionHandler<Integer, Void> endWrite = new CompletionHandler<Integer, Void>() {
+    static final CompletionHandler<Integer, ManyConnectionsClient> endWrite = new CompletionHandler<Integer, ManyConnectionsClient>() {
 
         @Override
-        public void failed(Throwable exc, Void attachment) {
+        public void failed(Throwable exc, ManyConnectionsClient client) {
+            client.releaseWriteBuffer();
             exc.printStackTrace();
-            close();
+            client.close();
         }
 
         @Override
-        public void completed(Integer result, Void attachment) {
-            switch (mode) {
+        public void completed(Integer result, ManyConnectionsClient client) {
+            if (client.writeBuffer.hasRemaining()) {
+                client.socket.write(client.writeBuffer, client, this);
+                return;
+            }
+
+            client.metrics.recordWrite(client.writeBuffer.limit(), 1);
+            client.releaseWriteBuffer();
+            switch (client.config.mode) {
             case FULL_DUPLEX:
-                int delay = rand.nextInt(1000);
-                Observable.timer(delay, TimeUnit.MILLISECONDS).subscribe(i -> beginWrite());
+                client.scheduleWrite(MAX_WRITE_DELAY_MILLIS);
                 break;
-            case HALF_DUPLEX:
-                beginRead();
+            default:
+                client.beginRead();
                 break;
             }
         }
     };
 
-    private CompletionHandler<Integer, Void> endRead = new CompletionHandler<Integer, Void>() {
+    static final CompletionHandler<Integer, ManyConnectionsClient> endRead = new CompletionHandler<Integer, ManyConnectionsClient>() {
 
         @Override
-        public void failed(Throwable exc, Void attachment) {
+        public void failed(Throwable exc, ManyConnectionsClient client) {
+            client.releaseReadBuffer(true);
             exc.printStackTrace();
-            close();
+            client.close();
         }
 
         @Override
-        public void completed(Integer result, Void attachment) {
-            long now = System.nanoTime();
+        public void completed(Integer result, ManyConnectionsClient client) {
+            if (result < 0) {
+                client.releaseReadBuffer(true);
+                client.close();
+                return;
+            }
+
+            ByteBuffer readBuffer = client.readBuffer;
             readBuffer.flip();
-            long writeTime = readBuffer.getLong();
+            int frames = client.decoder.decode(readBuffer, client);
             readBuffer.compact();
 
-            long latency = now - writeTime;
-            metrics.recordRead(result);
-            metrics.recordLatency(latency);
+            client.metrics.recordRead(result);
 
-            switch (mode) {
+            switch (client.config.mode) {
             case FULL_DUPLEX:
-                beginRead();
+                client.beginRead();
                 break;
-            case HALF_DUPLEX:
-                int delay = rand.nextInt(1000);
-                Observable.timer(delay, TimeUnit.MILLISECONDS).subscribe(i -> beginWrite());
+            default:
+                if (frames == 0) {
+                    client.beginRead();
+                    break;
+                }
+                client.releaseReadBuffer(false);
+                client.scheduleWrite(MAX_WRITE_DELAY_MILLIS);
                 break;
             }
         }
     };
 
     public static void main(String[] args) throws Exception {
-        int numClients = 4000;
-        InetSocketAddress remote = new InetSocketAddress("localhost", 4726);
+        ClientConfig config = ClientConfig.fromSystemProperties(4000, "half");
 
         Metrics metrics = new Metrics();
         metrics.start();
 
+        System.out.format(
+                "Connecting to %s with %d clients at %.0f connections/s\n",
+                config.remote,
+                config.numClients,
+                config.rampRate);
+
         List<ManyConnectionsClient> clients = IntStream
-                .range(0, numClients)
-                .mapToObj(i -> new ManyConnectionsClient(remote, ClientMode.HALF_DUPLEX, metrics))
+                .range(0, config.numClients)
+                .mapToObj(i -> new ManyConnectionsClient(config, metrics))
                 .collect(Collectors.toList());
 
         for (ManyConnectionsClient client : clients) {
             client.start();
-            Thread.sleep(10);
         }
 
         for (ManyConnectionsClient client : clients) {
@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Distribution the clients draw their frame sizes from. Parsed from
+ * -DmessageSize, which is one of
+ * <ul>
+ * <li>a fixed size in bytes, e.g. 64</li>
+ * <li>uniform:MIN-MAX, every size between MIN and MAX equally likely</li>
+ * <li>file:PATH, lines of "size weight" (weight defaults to 1, a weight of 0
+ * skips the line, # starts a comment)</li>
+ * </ul>
+ * Sizes below {@link FrameCodec#MIN_FRAME_SIZE} are raised to it.
+ */
+public class MessageSizes {
+    private final String description;
+    private final int minSize;
+    private final int maxSize;
+    private final int[] sizes;
+    private final double[] cumulativeWeights;
+
+    private MessageSizes(String description, int minSize, int maxSize, int[] sizes, double[] cumulativeWeights) {
+        this.description = description;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.sizes = sizes;
+        this.cumulativeWeights = cumulativeWeights;
+    }
+
+    public static MessageSizes fixed(int size) {
+        size = Math.max(FrameCodec.MIN_FRAME_SIZE, size);
+        return new MessageSizes(Integer.toString(size), size, size, null, null);
+    }
+
+    public static MessageSizes uniform(int minSize, int maxSize) {
+        minSize = Math.max(FrameCodec.MIN_FRAME_SIZE, minSize);
+        maxSize = Math.max(minSize, maxSize);
+        return new MessageSizes(String.format("uniform:%d-%d", minSize, maxSize), minSize, maxSize, null, null);
+    }
+
+    /**
+     * @param sizes Candidate sizes
+     * @param weights Relative frequency of each size, all positive
+     */
+    public static MessageSizes weighted(String description, int[] sizes, double[] weights) {
+        if (sizes.length == 0) {
+            throw new IllegalArgumentException("No message sizes with a positive weight in " + description);
+        }
+        int[] clamped = new int[sizes.length];
+        double[] cumulativeWeights = new double[sizes.length];
+        double total = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            // Zero weights would tie cumulative weights, so the search could still draw them
+            if (!(weights[i] > 0) || Double.isInfinite(weights[i])) {
+                throw new IllegalArgumentException("Weight of size " + sizes[i] + " is not positive in " + description);
+            }
+            clamped[i] = Math.max(FrameCodec.MIN_FRAME_SIZE, sizes[i]);
+            total += weights[i];
+            cumulativeWeights[i] = total;
+        }
+        return new MessageSizes(
+                description,
+                Arrays.stream(clamped).min().getAsInt(),
+                Arrays.stream(clamped).max().getAsInt(),
+                clamped,
+                cumulativeWeights);
+    }
+
+    public static MessageSizes parse(String spec) {
+        if (spec.startsWith("uniform:")) {
+            String[] range = spec.substring("uniform:".length()).split("-");
+            return uniform(Integer.parseInt(range[0].trim()), Integer.parseInt(range[1].trim()));
+        }
+        if (spec.startsWith("file:")) {
+            return load(spec.substring("file:".length()));
+        }
+        return fixed(Integer.parseInt(spec.trim()));
+    }
+
+    static MessageSizes load(String path) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(path));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read message sizes from " + path, e);
+        }
+
+        List<Integer> sizes = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        for (String line : lines) {
+            int comment = line.indexOf('#');
+            String[] fields = (comment < 0 ? line : line.substring(0, comment)).trim().split("\\s+");
+            if (fields[0].isEmpty()) {
+                continue;
+            }
+            double weight = fields.length > 1 ? Double.parseDouble(fields[1]) : 1.0;
+            if (weight == 0) {
+                continue;
+            }
+            sizes.add(Integer.parseInt(fields[0]));
+            weights.add(weight);
+        }
+        return weighted(
+                "file:" + path,
+                sizes.stream().mapToInt(Integer::intValue).toArray(),
+                weights.stream().mapToDouble(Double::doubleValue).toArray());
+    }
+
+    /**
+     * @return Size of the next frame
+     */
+    public int next() {
+        if (minSize == maxSize) {
+            return minSize;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (sizes == null) {
+            return random.nextInt(minSize, maxSize + 1);
+        }
+
+        double weight = random.nextDouble(cumulativeWeights[cumulativeWeights.length - 1]);
+        int index = Arrays.binarySearch(cumulativeWeights, weight);
+        return sizes[index < 0 ? -index - 1 : index + 1];
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public boolean isFixed() {
+        return minSize == maxSize;
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
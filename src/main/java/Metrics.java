@@ -1,91 +1,790 @@
-import java.util.Arrays;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 import rx.Observable;
 import rx.Subscription;
 
-public class Metrics {
+/**
+ * Client side measurements. The shared counters are {@link LongAdder}s, so
+ * client threads add to their own cells instead of contending on one field;
+ * the display thread only ever reads their sums.
+ */
+public class Metrics implements MetricsMXBean {
 
-    AtomicLong readBytesSummer = new AtomicLong();
-    AtomicInteger readCounter = new AtomicInteger();
-    AtomicInteger connectionCounter = new AtomicInteger();
+    public static final String OBJECT_NAME = "NetworkTests:type=Metrics";
 
-    Object latencySync = new Object();
-    int latencyStorageCapacity = 10000;
-    long[] latencyStorage = new long[10000];
-    int latencyCounter = 0;
+    LongAdder readBytesSummer = new LongAdder();
+    LongAdder readCounter = new LongAdder();
+    LongAdder connectionCounter = new LongAdder();
+    LongAdder writeCounter = new LongAdder();
+    LongAdder writeMessageCounter = new LongAdder();
+    LongAdder writeBytesSummer = new LongAdder();
+    long lastReadBytes;
+    long lastReadCount;
+    long lastWriteCount;
+    long lastWriteMessageCount;
+    long lastWriteBytes;
+
+    AtomicInteger connectionIds = new AtomicInteger();
+    Queue<Connection> connections = new ConcurrentLinkedQueue<>();
+    long connectionReportSeconds = Long.parseLong(System.getProperty("connectionReport", "0"));
+    int connectionReportTop = Integer.parseInt(System.getProperty("connectionReportTop", "10"));
+    long displayCount;
+
+    LatencyRecorder latencyRecorder = new LatencyRecorder();
+    LatencyHistogram latencies = new LatencyHistogram();
+    LatencyRecorder serviceTimeRecorder = new LatencyRecorder();
+    LatencyHistogram serviceTimes = new LatencyHistogram();
+    LatencyRecorder connectLatencyRecorder = new LatencyRecorder();
+    LatencyHistogram connectLatencies = new LatencyHistogram();
+
+    LatencyHistogram intervalLatencies = new LatencyHistogram();
+    LatencyHistogram intervalServiceTimes = new LatencyHistogram();
+    LatencyHistogram intervalConnectLatencies = new LatencyHistogram();
+    long intervalReadBytes;
+    long intervalReadCount;
+    long intervalWriteCount;
+    long intervalWriteMessageCount;
+    long intervalWriteBytes;
+
+    LatencyHistogram totalLatencies = new LatencyHistogram();
+    LatencyHistogram totalServiceTimes = new LatencyHistogram();
+    LatencyHistogram totalConnectLatencies = new LatencyHistogram();
+    long totalReadBytes;
+    long totalReadCount;
+    long totalWriteCount;
+    long totalWriteMessageCount;
+    long totalWriteBytes;
+    long totalStartTime;
+
+    Map<String, String> parameters = new LinkedHashMap<>();
+
+    int windowIntervals = Integer.parseInt(System.getProperty("metricsWindow", "10"));
+    LatencyHistogram[] windowLatencies = new LatencyHistogram[windowIntervals];
+    double[] windowSeconds = new double[windowIntervals];
+    long[] windowReadBytes = new long[windowIntervals];
+    long[] windowReadCounts = new long[windowIntervals];
+    int windowIndex;
+    LatencyHistogram windowTotal = new LatencyHistogram();
+    volatile Window window = new Window();
+
+    LatencyLog latencyLog = LatencyLog.fromSystemProperties();
+
+    // Indexed by the log2 of the frame size, null unless enableSizeBuckets was called
+    AtomicReferenceArray<SizeBucket> sizeBuckets;
+
+    long lastSnapshotConnections;
 
     Subscription displaySubscription;
     AtomicLong lastUpdateTimer = new AtomicLong();
 
     public void start() {
+        start(true);
+    }
+
+    /**
+     * @param timer Whether to print an update every second, otherwise the
+     *        caller calls {@link #displayUpdate()}
+     */
+    public void start(boolean timer) {
         long now = System.nanoTime();
         lastUpdateTimer.set(now);
-        displaySubscription = Observable.timer(0, 1, TimeUnit.SECONDS).subscribe(i -> displayUpdate());
+        totalStartTime = now;
+        if (timer) {
+            displaySubscription = Observable.timer(0, 1, TimeUnit.SECONDS).subscribe(i -> displayUpdate());
+        }
+        Utils.registerMBean(this, OBJECT_NAME);
+        if (latencyLog != null) {
+            // The standalone clients run until killed
+            Runtime.getRuntime().addShutdownHook(new Thread(this::closeLatencyLog));
+        }
     }
 
     public void stop() {
-        displaySubscription.unsubscribe();
+        if (displaySubscription != null) {
+            displaySubscription.unsubscribe();
+        }
+        Utils.unregisterMBean(OBJECT_NAME);
+        if (connectionReportSeconds > 0) {
+            printConnections();
+        }
+        closeLatencyLog();
+    }
+
+    private synchronized void closeLatencyLog() {
+        if (latencyLog == null || latencyLog.isClosed()) {
+            return;
+        }
+        try {
+            latencyLog.close();
+            System.out.printf("Latency log written to %s", latencyLog.getDirectory());
+            if (latencyLog.getDropped() > 0) {
+                System.out.printf(", %d samples dropped", latencyLog.getDropped());
+            }
+            System.out.println();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Counters of one connection. Only the thread currently serving the
+     * connection updates them, so they are plain fields that cost no more than
+     * a few stores on the hot path. The display thread reads them racily,
+     * which is good enough for monitoring.
+     */
+    public static class Connection {
+        public final int id;
+        boolean connected;
+        long messages;
+        long latencySum;
+        long latencyMax;
+
+        // Only touched by the display thread
+        long intervalStartMessages;
+        long totalStartMessages;
+        long totalStartLatencySum;
+
+        Connection(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * @return Counters for a new connection, with an id identifying it in the
+     *         per-connection report and the latency log
+     */
+    public Connection newConnection() {
+        Connection connection = new Connection(connectionIds.getAndIncrement());
+        connections.add(connection);
+        return connection;
     }
 
-    public void recordConnect() {
-        connectionCounter.getAndIncrement();
+    /**
+     * Names a setting of the run, e.g. the threading strategy of the clients,
+     * so it is shown with every update and stored with the results.
+     */
+    public synchronized void setParameter(String name, String value) {
+        parameters.put(name, value);
     }
 
-    public void recordDisconnect() {
-        connectionCounter.getAndDecrement();
+    public void recordConnect(Connection connection) {
+        synchronized (connection) {
+            if (connection.connected) {
+                return;
+            }
+            connection.connected = true;
+        }
+        connectionCounter.increment();
+    }
+
+    /**
+     * Can be called more than once, e.g. by both the read and the write side.
+     */
+    public void recordDisconnect(Connection connection) {
+        synchronized (connection) {
+            if (!connection.connected) {
+                return;
+            }
+            connection.connected = false;
+        }
+        connectionCounter.decrement();
     }
 
     public void recordRead(long bytes) {
-        readCounter.getAndIncrement();
-        readBytesSummer.getAndAdd(bytes);
+        readCounter.increment();
+        readBytesSummer.add(bytes);
+    }
+
+    /**
+     * Records a single write call carrying one or more messages.
+     */
+    public void recordWrite(long bytes, int messages) {
+        writeCounter.increment();
+        writeMessageCounter.add(messages);
+        writeBytesSummer.add(bytes);
     }
 
-    public void recordLatency(long latencyInNanos) {
-        synchronized (latencySync) {
-            if (latencyCounter >= latencyStorageCapacity) {
-                latencyStorageCapacity *= 2;
-                latencyStorage = Arrays.copyOf(latencyStorage, latencyStorageCapacity);
+    /**
+     * Latencies and bytes of the frames of one power-of-two size range.
+     */
+    static class SizeBucket {
+        final int maxSize;
+        final LatencyRecorder recorder = new LatencyRecorder(2);
+        final LongAdder bytes = new LongAdder();
+        final LatencyHistogram totalLatencies = new LatencyHistogram();
+        long totalStartBytes;
+
+        SizeBucket(int maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    /**
+     * Additionally records latencies per power-of-two frame size, reported by
+     * {@link #getTotalsBySize()}. Only worth its cost when the sizes vary.
+     */
+    public synchronized void enableSizeBuckets() {
+        if (sizeBuckets == null) {
+            sizeBuckets = new AtomicReferenceArray<>(32);
+        }
+    }
+
+    /**
+     * Records the time from when a message was meant to be sent until its echo
+     * arrived, and appends it to the latency log if -DlatencyLog is set.
+     */
+    public void recordLatency(Connection connection, long latencyInNanos, int frameSize) {
+        latencyRecorder.record(latencyInNanos);
+        if (sizeBuckets != null) {
+            sizeBucket(frameSize).recorder.record(latencyInNanos);
+            sizeBucket(frameSize).bytes.add(frameSize);
+        }
+        connection.messages++;
+        connection.latencySum += latencyInNanos;
+        if (latencyInNanos > connection.latencyMax) {
+            connection.latencyMax = latencyInNanos;
+        }
+        if (latencyLog != null) {
+            latencyLog.record(connection.id, latencyInNanos);
+        }
+    }
+
+    private SizeBucket sizeBucket(int frameSize) {
+        int index = 32 - Integer.numberOfLeadingZeros(frameSize - 1);
+        SizeBucket bucket = sizeBuckets.get(index);
+        if (bucket == null) {
+            sizeBuckets.compareAndSet(index, null, new SizeBucket(1 << index));
+            bucket = sizeBuckets.get(index);
+        }
+        return bucket;
+    }
+
+    /**
+     * Records the time from when a message was actually sent until its echo
+     * arrived. Only differs from the latency for open-loop clients.
+     */
+    public void recordServiceTime(long serviceTimeInNanos) {
+        serviceTimeRecorder.record(serviceTimeInNanos);
+    }
+
+    /**
+     * Records how long a connect took until the connection was established,
+     * which also counts the connection for the connect rate.
+     */
+    public void recordConnectLatency(long latencyInNanos) {
+        connectLatencyRecorder.record(latencyInNanos);
+    }
+
+    /**
+     * Restarts the totals reported by {@link #getTotals()}, e.g. at the end of a warm-up period.
+     */
+    public synchronized void resetTotals() {
+        collect();
+        totalLatencies.reset();
+        totalServiceTimes.reset();
+        totalConnectLatencies.reset();
+        totalReadBytes = 0;
+        totalReadCount = 0;
+        totalWriteCount = 0;
+        totalWriteMessageCount = 0;
+        totalWriteBytes = 0;
+        totalStartTime = System.nanoTime();
+        for (Connection connection : connections) {
+            connection.totalStartMessages = connection.messages;
+            connection.totalStartLatencySum = connection.latencySum;
+            connection.latencyMax = 0;
+        }
+        if (sizeBuckets != null) {
+            for (int i = 0; i < sizeBuckets.length(); i++) {
+                SizeBucket bucket = sizeBuckets.get(i);
+                if (bucket != null) {
+                    bucket.totalLatencies.reset();
+                    bucket.totalStartBytes = bucket.bytes.sum();
+                }
             }
-            latencyStorage[latencyCounter] = latencyInNanos;
-            latencyCounter++;
         }
     }
 
-    private void displayUpdate() {
-        long now = System.nanoTime();
-        long lastUpdateTime = lastUpdateTimer.getAndSet(now);
-        long readBytesSum = readBytesSummer.getAndSet(0);
-        long readCount = readCounter.getAndSet(0);
-        long connections = connectionCounter.get();
+    /**
+     * @return Everything recorded since {@link #start()} or the last {@link #resetTotals()}
+     */
+    public synchronized BenchmarkResult getTotals() {
+        collect();
+        double timeInSeconds = (double) (System.nanoTime() - totalStartTime) * 1e-9;
+        BenchmarkResult result = new BenchmarkResult(
+                timeInSeconds,
+                totalReadCount,
+                totalReadBytes,
+                totalWriteCount,
+                totalWriteMessageCount,
+                totalWriteBytes,
+                totalLatencies,
+                totalServiceTimes,
+                totalConnectLatencies,
+                connectedCounts(false));
+        result.parameters.putAll(parameters);
+        return result;
+    }
 
-        long[] latencies;
-        int latencyCount;
-        synchronized (latencySync) {
-            latencyCount = latencyCounter;
-            latencyCounter = 0;
+    /**
+     * @return Totals of each frame size range since the totals started, by
+     *         increasing size, empty unless {@link #enableSizeBuckets()} was called
+     */
+    public synchronized List<BenchmarkResult> getTotalsBySize() {
+        List<BenchmarkResult> results = new ArrayList<>();
+        if (sizeBuckets == null) {
+            return results;
+        }
 
-            latencies = latencyStorage;
-            latencyStorage = new long[latencyStorageCapacity];
+        collect();
+        double timeInSeconds = (double) (System.nanoTime() - totalStartTime) * 1e-9;
+        for (int i = 0; i < sizeBuckets.length(); i++) {
+            SizeBucket bucket = sizeBuckets.get(i);
+            if (bucket == null || bucket.totalLatencies.getTotalCount() == 0) {
+                continue;
+            }
+            BenchmarkResult result = new BenchmarkResult(
+                    timeInSeconds,
+                    bucket.totalLatencies.getTotalCount(),
+                    bucket.bytes.sum() - bucket.totalStartBytes,
+                    0,
+                    0,
+                    0,
+                    bucket.totalLatencies,
+                    new LatencyHistogram(),
+                    new LatencyHistogram(),
+                    new long[0]);
+            result.parameters.putAll(parameters);
+            result.parameters.put("sizeBucket", Integer.toString(bucket.maxSize));
+            results.add(result);
         }
-        Arrays.sort(latencies, 0, latencyCount);
+        return results;
+    }
+
+    /**
+     * Clears the JMX window and restarts the totals.
+     */
+    @Override
+    public synchronized void reset() {
+        resetTotals();
+        for (int i = 0; i < windowIntervals; i++) {
+            windowLatencies[i] = null;
+            windowSeconds[i] = 0;
+            windowReadBytes[i] = 0;
+            windowReadCounts[i] = 0;
+        }
+        window = new Window();
+    }
+
+    @Override
+    public int getConnections() {
+        return connectionCounter.intValue();
+    }
+
+    @Override
+    public double getWindowSeconds() {
+        return window.seconds;
+    }
+
+    @Override
+    public double getMessageRate() {
+        return window.messageRate;
+    }
+
+    @Override
+    public double getByteRate() {
+        return window.byteRate;
+    }
+
+    @Override
+    public double getReadRate() {
+        return window.readRate;
+    }
+
+    @Override
+    public double getLatencyP50Ms() {
+        return window.latencyP50;
+    }
+
+    @Override
+    public double getLatencyP90Ms() {
+        return window.latencyP90;
+    }
+
+    @Override
+    public double getLatencyP99Ms() {
+        return window.latencyP99;
+    }
+
+    @Override
+    public double getLatencyP999Ms() {
+        return window.latencyP999;
+    }
+
+    @Override
+    public double getLatencyMaxMs() {
+        return window.latencyMax;
+    }
+
+    /**
+     * Values published over JMX. Replaced as a whole once per update, so a
+     * reader always sees one consistent window.
+     */
+    static class Window {
+        double seconds;
+        double messageRate;
+        double byteRate;
+        double readRate;
+        double latencyP50;
+        double latencyP90;
+        double latencyP99;
+        double latencyP999;
+        double latencyMax;
+    }
+
+    private void updateWindow(double timeInSeconds, long readBytes, long readCount) {
+        if (windowLatencies[windowIndex] == null) {
+            windowLatencies[windowIndex] = new LatencyHistogram();
+        }
+        windowLatencies[windowIndex].reset();
+        windowLatencies[windowIndex].add(intervalLatencies);
+        windowSeconds[windowIndex] = timeInSeconds;
+        windowReadBytes[windowIndex] = readBytes;
+        windowReadCounts[windowIndex] = readCount;
+        windowIndex = (windowIndex + 1) % windowIntervals;
+
+        Window next = new Window();
+        long totalReadBytes = 0;
+        long totalReadCount = 0;
+        windowTotal.reset();
+        for (int i = 0; i < windowIntervals; i++) {
+            if (windowLatencies[i] != null) {
+                windowTotal.add(windowLatencies[i]);
+            }
+            next.seconds += windowSeconds[i];
+            totalReadBytes += windowReadBytes[i];
+            totalReadCount += windowReadCounts[i];
+        }
+        if (next.seconds > 0) {
+            next.messageRate = (double) windowTotal.getTotalCount() / next.seconds;
+            next.byteRate = (double) totalReadBytes / next.seconds;
+            next.readRate = (double) totalReadCount / next.seconds;
+        }
+        next.latencyP50 = (double) windowTotal.getValueAtPercentile(50) * 1e-6;
+        next.latencyP90 = (double) windowTotal.getValueAtPercentile(90) * 1e-6;
+        next.latencyP99 = (double) windowTotal.getValueAtPercentile(99) * 1e-6;
+        next.latencyP999 = (double) windowTotal.getValueAtPercentile(99.9) * 1e-6;
+        next.latencyMax = (double) windowTotal.getMaxValue() * 1e-6;
+        window = next;
+    }
+
+    private void collect() {
+        // The adders are never reset, since sumThenReset could lose concurrent updates
+        long readBytesSum = readBytesSummer.sum() - lastReadBytes;
+        long readCount = readCounter.sum() - lastReadCount;
+        long writeCount = writeCounter.sum() - lastWriteCount;
+        long writeMessageCount = writeMessageCounter.sum() - lastWriteMessageCount;
+        long writeBytes = writeBytesSummer.sum() - lastWriteBytes;
+        lastReadBytes += readBytesSum;
+        lastReadCount += readCount;
+        lastWriteCount += writeCount;
+        lastWriteMessageCount += writeMessageCount;
+        lastWriteBytes += writeBytes;
+        latencyRecorder.drainTo(latencies);
+
+        intervalWriteCount += writeCount;
+        intervalWriteMessageCount += writeMessageCount;
+        totalWriteCount += writeCount;
+        totalWriteMessageCount += writeMessageCount;
+        intervalWriteBytes += writeBytes;
+        totalWriteBytes += writeBytes;
+
+        intervalReadBytes += readBytesSum;
+        intervalReadCount += readCount;
+        totalReadBytes += readBytesSum;
+        totalReadCount += readCount;
+        totalLatencies.add(latencies);
+        intervalLatencies.add(latencies);
+        latencies.reset();
+
+        serviceTimeRecorder.drainTo(serviceTimes);
+        totalServiceTimes.add(serviceTimes);
+        intervalServiceTimes.add(serviceTimes);
+        serviceTimes.reset();
+
+        connectLatencyRecorder.drainTo(connectLatencies);
+        totalConnectLatencies.add(connectLatencies);
+        intervalConnectLatencies.add(connectLatencies);
+        connectLatencies.reset();
+
+        if (sizeBuckets != null) {
+            for (int i = 0; i < sizeBuckets.length(); i++) {
+                SizeBucket bucket = sizeBuckets.get(i);
+                if (bucket != null) {
+                    bucket.recorder.drainTo(bucket.totalLatencies);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counters and histograms of one interval, exchanged between a
+     * {@link LoadAgent} and the {@link LoadCoordinator}. Histograms are sent
+     * bucket by bucket, so percentiles merged from several agents are exact.
+     */
+    public static class Snapshot {
+        long readBytes;
+        long readCount;
+        long writeCount;
+        long writeMessageCount;
+        long writeBytes;
+        /** Change in the number of connected connections */
+        long connections;
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final LatencyHistogram serviceTimes = new LatencyHistogram();
+        final LatencyHistogram connectLatencies = new LatencyHistogram();
+
+        public void writeTo(DataOutput out) throws IOException {
+            out.writeLong(readBytes);
+            out.writeLong(readCount);
+            out.writeLong(writeCount);
+            out.writeLong(writeMessageCount);
+            out.writeLong(writeBytes);
+            out.writeLong(connections);
+            latencies.writeTo(out);
+            serviceTimes.writeTo(out);
+            connectLatencies.writeTo(out);
+        }
+
+        public static Snapshot readFrom(DataInput in) throws IOException {
+            Snapshot snapshot = new Snapshot();
+            snapshot.readBytes = in.readLong();
+            snapshot.readCount = in.readLong();
+            snapshot.writeCount = in.readLong();
+            snapshot.writeMessageCount = in.readLong();
+            snapshot.writeBytes = in.readLong();
+            snapshot.connections = in.readLong();
+            snapshot.latencies.readFrom(in);
+            snapshot.serviceTimes.readFrom(in);
+            snapshot.connectLatencies.readFrom(in);
+            return snapshot;
+        }
+    }
+
+    /**
+     * Takes everything recorded since the last snapshot. Only for metrics that
+     * are not displayed, as the interval values are handed over instead.
+     */
+    public synchronized Snapshot takeSnapshot() {
+        collect();
+        Snapshot snapshot = new Snapshot();
+        snapshot.readBytes = intervalReadBytes;
+        snapshot.readCount = intervalReadCount;
+        snapshot.writeCount = intervalWriteCount;
+        snapshot.writeMessageCount = intervalWriteMessageCount;
+        snapshot.writeBytes = intervalWriteBytes;
+        long connected = connectionCounter.sum();
+        snapshot.connections = connected - lastSnapshotConnections;
+        lastSnapshotConnections = connected;
+        snapshot.latencies.add(intervalLatencies);
+        snapshot.serviceTimes.add(intervalServiceTimes);
+        snapshot.connectLatencies.add(intervalConnectLatencies);
+
+        intervalReadBytes = 0;
+        intervalReadCount = 0;
+        intervalWriteCount = 0;
+        intervalWriteMessageCount = 0;
+        intervalWriteBytes = 0;
+        intervalLatencies.reset();
+        intervalServiceTimes.reset();
+        intervalConnectLatencies.reset();
+        return snapshot;
+    }
+
+    /**
+     * Adds a snapshot taken by another process, as if its values had been recorded here.
+     */
+    public synchronized void add(Snapshot snapshot) {
+        readBytesSummer.add(snapshot.readBytes);
+        readCounter.add(snapshot.readCount);
+        writeCounter.add(snapshot.writeCount);
+        writeMessageCounter.add(snapshot.writeMessageCount);
+        writeBytesSummer.add(snapshot.writeBytes);
+        connectionCounter.add(snapshot.connections);
+        latencies.add(snapshot.latencies);
+        serviceTimes.add(snapshot.serviceTimes);
+        connectLatencies.add(snapshot.connectLatencies);
+    }
+
+    public synchronized void displayUpdate() {
+        long now = System.nanoTime();
+        long lastUpdateTime = lastUpdateTimer.getAndSet(now);
+        long connected = connectionCounter.sum();
+
+        collect();
+        long readBytesSum = intervalReadBytes;
+        long readCount = intervalReadCount;
+        long latencyCount = intervalLatencies.getTotalCount();
 
         double timeInSeconds = (double) (now - lastUpdateTime) * 1e-9;
 
-        double latencyP50 = latencyCount == 0 ? 0 : (double) latencies[latencyCount / 2] * 1e-6;
-        double latencyP90 = latencyCount == 0 ? 0 : (double) latencies[latencyCount * 9 / 10] * 1e-6;
+        double latencyP50 = (double) intervalLatencies.getValueAtPercentile(50) * 1e-6;
+        double latencyP90 = (double) intervalLatencies.getValueAtPercentile(90) * 1e-6;
+        double latencyP99 = (double) intervalLatencies.getValueAtPercentile(99) * 1e-6;
+        double latencyP999 = (double) intervalLatencies.getValueAtPercentile(99.9) * 1e-6;
+        double latencyP9999 = (double) intervalLatencies.getValueAtPercentile(99.99) * 1e-6;
+        double latencyMax = (double) intervalLatencies.getMaxValue() * 1e-6;
         double readByteRate = timeInSeconds == 0 ? 0 : (double) readBytesSum / timeInSeconds;
         double messageRate = timeInSeconds == 0 ? 0 : (double) latencyCount / timeInSeconds;
+
+        updateWindow(timeInSeconds, readBytesSum, readCount);
+        intervalReadBytes = 0;
+        intervalReadCount = 0;
+        intervalLatencies.reset();
+
         System.out
                 .printf(
-                        "Connections: %d, Read count: %d, Byte rate: %.2f/s, Message rate: %.0f/s, Latency: P50 %.3fms P90 %.3fms\n",
-                        connections,
+                        "Connections: %d, Read count: %d, Byte rate: %.2f/s, Message rate: %.0f/s, Latency: P50 %.3fms P90 %.3fms P99 %.3fms P99.9 %.3fms P99.99 %.3fms Max %.3fms",
+                        connected,
                         readCount,
                         readByteRate,
                         messageRate,
                         latencyP50,
-                        latencyP90);
+                        latencyP90,
+                        latencyP99,
+                        latencyP999,
+                        latencyP9999,
+                        latencyMax);
+
+        if (intervalServiceTimes.getTotalCount() > 0) {
+            System.out
+                    .printf(
+                            ", Service time: P50 %.3fms P99 %.3fms P99.9 %.3fms Max %.3fms",
+                            (double) intervalServiceTimes.getValueAtPercentile(50) * 1e-6,
+                            (double) intervalServiceTimes.getValueAtPercentile(99) * 1e-6,
+                            (double) intervalServiceTimes.getValueAtPercentile(99.9) * 1e-6,
+                            (double) intervalServiceTimes.getMaxValue() * 1e-6);
+            intervalServiceTimes.reset();
+        }
+        if (intervalConnectLatencies.getTotalCount() > 0) {
+            System.out
+                    .printf(
+                            ", Connects: %.0f/s P50 %.3fms P99 %.3fms P99.9 %.3fms Max %.3fms",
+                            (double) intervalConnectLatencies.getTotalCount() / timeInSeconds,
+                            (double) intervalConnectLatencies.getValueAtPercentile(50) * 1e-6,
+                            (double) intervalConnectLatencies.getValueAtPercentile(99) * 1e-6,
+                            (double) intervalConnectLatencies.getValueAtPercentile(99.9) * 1e-6,
+                            (double) intervalConnectLatencies.getMaxValue() * 1e-6);
+            intervalConnectLatencies.reset();
+        }
+        if (intervalWriteCount > 0) {
+            System.out
+                    .printf(
+                            ", Batch: %.1f msgs %.0f bytes/write",
+                            (double) intervalWriteMessageCount / intervalWriteCount,
+                            (double) intervalWriteBytes / intervalWriteCount);
+            intervalWriteCount = 0;
+            intervalWriteMessageCount = 0;
+            intervalWriteBytes = 0;
+        }
+        long[] intervalCounts = connectedCounts(true);
+        if (intervalCounts.length > 1) {
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (long count : intervalCounts) {
+                min = Math.min(min, count);
+                max = Math.max(max, count);
+            }
+            System.out
+                    .printf(
+                            ", Fairness: %.3f (%.0f-%.0f msgs/s per connection)",
+                            fairnessIndex(intervalCounts),
+                            (double) min / timeInSeconds,
+                            (double) max / timeInSeconds);
+        }
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            System.out.printf(", %s: %s", parameter.getKey(), parameter.getValue());
+        }
+        System.out.println();
+
+        displayCount++;
+        if (connectionReportSeconds > 0 && displayCount % connectionReportSeconds == 0) {
+            printConnections();
+        }
+    }
+
+    /**
+     * @param interval Messages since the last call with interval set, otherwise since the totals started
+     * @return Message counts of the connected connections
+     */
+    private long[] connectedCounts(boolean interval) {
+        List<Long> counts = new ArrayList<>();
+        for (Connection connection : connections) {
+            long messages = connection.messages;
+            long start = interval ? connection.intervalStartMessages : connection.totalStartMessages;
+            if (interval) {
+                connection.intervalStartMessages = messages;
+            }
+            if (connection.connected) {
+                counts.add(messages - start);
+            }
+        }
+        return counts.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Jain's fairness index: 1 when all connections got the same share, down
+     * to 1/n when a single connection got everything.
+     */
+    static double fairnessIndex(long[] counts) {
+        double sum = 0;
+        double sumOfSquares = 0;
+        for (long count : counts) {
+            sum += count;
+            sumOfSquares += (double) count * count;
+        }
+        return sumOfSquares == 0 ? 1 : sum * sum / (counts.length * sumOfSquares);
+    }
+
+    /**
+     * Prints the connections with the lowest message rates since the totals
+     * started, all of them with -DconnectionReportTop=0.
+     */
+    public synchronized void printConnections() {
+        double timeInSeconds = (double) (System.nanoTime() - totalStartTime) * 1e-9;
+        List<Connection> slowest = new ArrayList<>(connections);
+        slowest.sort(Comparator.comparingLong(connection -> connection.messages - connection.totalStartMessages));
+        if (connectionReportTop > 0 && slowest.size() > connectionReportTop) {
+            slowest = slowest.subList(0, connectionReportTop);
+        }
+
+        System.out.printf("Slowest %d of %d connections:\n", slowest.size(), connections.size());
+        for (Connection connection : slowest) {
+            long messages = connection.messages - connection.totalStartMessages;
+            long latencySum = connection.latencySum - connection.totalStartLatencySum;
+            System.out
+                    .printf(
+                            "  Connection %d%s: %d messages, %.0f msgs/s, Latency: mean %.3fms max %.3fms\n",
+                            connection.id,
+                            connection.connected ? "" : " (closed)",
+                            messages,
+                            (double) messages / timeInSeconds,
+                            messages == 0 ? 0 : (double) latencySum / messages * 1e-6,
+                            (double) connection.latencyMax * 1e-6);
+        }
     }
 }
@@ -0,0 +1,32 @@
+/**
+ * Client metrics published over JMX as NetworkTests:type=Metrics. Rates and
+ * percentiles cover the last -DmetricsWindow seconds (default 10) and are
+ * updated once a second, so reading them never blocks the recording threads.
+ */
+public interface MetricsMXBean {
+
+    int getConnections();
+
+    double getWindowSeconds();
+
+    double getMessageRate();
+
+    double getByteRate();
+
+    double getReadRate();
+
+    double getLatencyP50Ms();
+
+    double getLatencyP90Ms();
+
+    double getLatencyP99Ms();
+
+    double getLatencyP999Ms();
+
+    double getLatencyMaxMs();
+
+    /**
+     * Clears the window and restarts the totals.
+     */
+    void reset();
+}
@@ -1,6 +1,5 @@
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
@@ -11,62 +10,232 @@ import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-public class NettyClient {
-    static Semaphore limiter = new Semaphore(200);
-    static Metrics metrics = new Metrics();
+public class NettyClient implements EchoClient {
+    static final EventLoopGroup workerGroup = new NioEventLoopGroup();
 
-    public static void main(String[] args) throws Exception {
-        String serverHostname = System.getProperty("server", "localhost");
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
+    private final Semaphore limiter;
+    private final Object writability = new Object();
+    private final CountDownLatch closeLatch = new CountDownLatch(1);
+    private final InetSocketAddress remote;
+    private final SocketTuning tuning;
+    private final ClientMode mode;
+    private final Metrics metrics;
+    private final Metrics.Connection connection;
+    private final long sendIntervalNanos;
+    private final MessageSizes messageSizes;
+    private final int maxBatchMessages;
+    private final long lingerNanos;
+    private final ByteBuffer readBuffer;
+    private final FrameCodec decoder = new FrameCodec();
+    private final FrameCodec.FrameHandler frameHandler = this::onFrame;
+    private Channel channel;
+    private Thread writer;
+    private volatile boolean closed;
+    private long nextSendTime;
+
+    public NettyClient(ClientConfig config, Metrics metrics) {
+        this.remote = config.remote;
+        this.tuning = config.tuning;
+        this.mode = config.mode;
+        this.limiter = new Semaphore(config.getWindow());
+        this.metrics = metrics;
+        this.connection = metrics.newConnection();
+        this.sendIntervalNanos = config.getSendIntervalNanos();
+        this.messageSizes = config.messageSizes;
+        this.readBuffer = config.allocateBuffer(config.readBufferSize);
+        this.maxBatchMessages = config.getMaxBatchMessages();
+        this.lingerNanos = config.getLingerNanos();
+    }
+
+    public void start() throws IOException {
+        Bootstrap b = new Bootstrap();
+        b.group(workerGroup);
+        b.channel(NioSocketChannel.class);
+        tuning.apply(b);
+        b.handler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            public void initChannel(SocketChannel ch) throws Exception {
+                ch.pipeline().addLast(new ClientHandler());
+            }
+        });
+
+        ChannelFuture f = b.connect(remote).syncUninterruptibly();
+        channel = f.channel();
+        metrics.recordConnect(connection);
+        channel.closeFuture().addListener(_f -> {
+            metrics.recordDisconnect(connection);
+            closeLatch.countDown();
+        });
+
+        if (mode == ClientMode.OPEN_LOOP) {
+            nextSendTime = System.nanoTime();
+            long tickNanos = Math.max(sendIntervalNanos, MIN_TICK_NANOS);
+            ScheduledFuture<?> sender =
+                    channel.eventLoop().scheduleAtFixedRate(this::sendDue, 0, tickNanos, TimeUnit.NANOSECONDS);
+            channel.closeFuture().addListener(_f -> sender.cancel(false));
+        } else {
+            writer = new Thread(this::writeLoop);
+            writer.start();
+        }
+    }
+
+    public void close() {
+        closed = true;
+        channel.close();
+        if (writer != null) {
+            writer.interrupt();
+        }
+    }
 
+    public void waitForClose() throws InterruptedException {
+        closeLatch.await();
+    }
+
+    private void writeLoop() {
         try {
-            Bootstrap b = new Bootstrap();
-            b.group(workerGroup);
-            b.channel(NioSocketChannel.class);
-            b.handler(new ChannelInitializer<SocketChannel>() {
-                @Override
-                public void initChannel(SocketChannel ch) throws Exception {
-                    ch.pipeline().addLast(new ClientHandler());
+            while (channel.isOpen()) {
+                limiter.acquire();
+                long lingerDeadline = System.nanoTime() + lingerNanos;
+                int messages = 0;
+                long bytes = 0;
+                while (true) {
+                    long start = System.nanoTime();
+                    ByteBuf frame = encodeFrame(start, start);
+                    bytes += frame.readableBytes();
+                    channel.write(frame, channel.voidPromise());
+                    messages++;
+                    if (messages >= maxBatchMessages) {
+                        break;
+                    }
+
+                    long lingerRemaining = Math.max(0, lingerDeadline - System.nanoTime());
+                    if (!limiter.tryAcquire(lingerRemaining, TimeUnit.NANOSECONDS)) {
+                        break;
+                    }
                 }
-            });
+                channel.flush();
+                metrics.recordWrite(bytes, messages);
+                awaitWritable();
+            }
+        } catch (InterruptedException e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Holds the write loop while the outbound buffer is above its high water
+     * mark, which bounds memory when the window is unlimited.
+     */
+    private void awaitWritable() throws InterruptedException {
+        synchronized (writability) {
+            while (!channel.isWritable() && channel.isOpen()) {
+                writability.wait(100);
+            }
+        }
+    }
 
-            ChannelFuture f = b.connect(serverHostname, 4726).sync();
-            Channel c = f.channel();
-            metrics.start();
+    static final long MIN_TICK_NANOS = 100_000;
 
-            while (c.isOpen()) {
-                limiter.acquire();
-                long start = System.nanoTime();
-                ByteBuf startMsg = Unpooled.buffer();
-                startMsg.writeLong(start);
-                c.writeAndFlush(startMsg);
+    /**
+     * Sends every message whose scheduled time has passed, stamped with both
+     * its scheduled and actual send time. Runs on the channel's event loop.
+     */
+    private void sendDue() {
+        if (!channel.isActive()) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        while (nextSendTime <= now) {
+            channel.write(encodeFrame(nextSendTime, now), channel.voidPromise());
+            nextSendTime += sendIntervalNanos;
+        }
+        channel.flush();
+    }
+
+    private ByteBuf encodeFrame(long intendedTime, long sendTime) {
+        int messageSize = messageSizes.next();
+        ByteBuf msg = channel.alloc().buffer(messageSize);
+        FrameCodec.encode(msg.internalNioBuffer(0, messageSize), intendedTime, sendTime, messageSize);
+        msg.writerIndex(messageSize);
+        return msg;
+    }
+
+    private void onFrame(long intendedTime, long sendTime, int frameSize) {
+        long readTime = System.nanoTime();
+        metrics.recordLatency(connection, readTime - intendedTime, frameSize);
+        if (mode == ClientMode.OPEN_LOOP) {
+            metrics.recordServiceTime(readTime - sendTime);
+        } else {
+            limiter.release();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ClientConfig config = ClientConfig.fromSystemProperties(1, "full");
+        Metrics metrics = new Metrics();
+        metrics.start();
+
+        System.out.format("Connecting to %s with %d clients\n", config.remote, config.numClients);
+
+        List<NettyClient> clients = Stream
+                .generate(() -> new NettyClient(config, metrics))
+                .limit(config.numClients)
+                .collect(Collectors.toList());
+
+        try {
+            for (NettyClient client : clients) {
+                client.start();
             }
 
-            f.channel().closeFuture().sync();
+            for (NettyClient client : clients) {
+                client.waitForClose();
+            }
         } finally {
             workerGroup.shutdownGracefully();
         }
     }
 
-    static class ClientHandler extends ChannelInboundHandlerAdapter {
-        ByteBuf readBuffer = Unpooled.buffer();
+    class ClientHandler extends ChannelInboundHandlerAdapter {
 
         @Override
         public void channelRead(ChannelHandlerContext ctx, Object msg) {
-            long end = System.nanoTime();
             ByteBuf m = (ByteBuf) msg;
             metrics.recordRead(m.readableBytes());
-            readBuffer.writeBytes(m);
+            while (m.isReadable()) {
+                int limit = readBuffer.limit();
+                readBuffer.limit(readBuffer.position() + Math.min(m.readableBytes(), readBuffer.remaining()));
+                m.readBytes(readBuffer);
+                readBuffer.limit(limit);
+
+                readBuffer.flip();
+                decoder.decode(readBuffer, frameHandler);
+                readBuffer.compact();
+            }
             m.release();
+        }
 
-            while (readBuffer.readableBytes() > 0) {
-                long start = readBuffer.readLong();
-                metrics.recordLatency(end - start);
-                limiter.release();
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+            synchronized (writability) {
+                writability.notifyAll();
             }
-            readBuffer.discardReadBytes();
+            ctx.fireChannelWritabilityChanged();
         }
 
         @Override
@@ -0,0 +1,129 @@
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.AttributeKey;
+
+import java.net.InetSocketAddress;
+
+public class NettyEchoServer {
+
+    public static final int PORT = Integer.getInteger("port", 4726);
+
+    static final ServerMetrics metrics = new ServerMetrics("netty");
+    static final SocketTuning tuning = SocketTuning.fromSystemProperties();
+
+    public static void main(String[] args) throws Exception {
+        int bossThreads = Integer.parseInt(System.getProperty("bossThreads", "1"));
+        int workerThreads = Integer.parseInt(System.getProperty("workerThreads", "0"));
+        boolean useEpoll = Epoll.isAvailable() && !Boolean.getBoolean("disableEpoll");
+
+        EventLoopGroup bossGroup = useEpoll ? new EpollEventLoopGroup(bossThreads) : new NioEventLoopGroup(bossThreads);
+        EventLoopGroup workerGroup = useEpoll
+                ? new EpollEventLoopGroup(workerThreads)
+                : new NioEventLoopGroup(workerThreads);
+        Class<? extends ServerChannel> channelClass = useEpoll
+                ? EpollServerSocketChannel.class
+                : NioServerSocketChannel.class;
+
+        try {
+            ServerBootstrap b = new ServerBootstrap();
+            b.group(bossGroup, workerGroup);
+            b.channel(channelClass);
+            b.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+            b.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+            tuning.apply(b);
+            b.childHandler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                public void initChannel(SocketChannel ch) throws Exception {
+                    ch.pipeline().addLast(new FlushConsolidationHandler(), echoHandler);
+                }
+            });
+
+            InetSocketAddress local = new InetSocketAddress(PORT);
+            ChannelFuture f = b.bind(local).sync();
+            System.out.printf("Netty server listening on %s using %s\n", f.channel().localAddress(), useEpoll ? "epoll" : "nio");
+            // Memory of the pooled allocator in use, shared by all channels rather than per connection
+            metrics.setBufferBytes(() -> PooledByteBufAllocator.DEFAULT.metric().usedDirectMemory()
+                    + PooledByteBufAllocator.DEFAULT.metric().usedHeapMemory());
+            metrics.start();
+
+            f.channel().closeFuture().sync();
+        } finally {
+            bossGroup.shutdownGracefully();
+            workerGroup.shutdownGracefully();
+        }
+    }
+
+    static final ChannelHandler echoHandler = new EchoHandler();
+    static final AttributeKey<EchoChannel> ECHO_CHANNEL = AttributeKey.valueOf("echoChannel");
+
+    /**
+     * State of one channel, kept as an attribute as the handler is shared
+     */
+    static class EchoChannel {
+        final ServerMetrics.Connection connection;
+        /** Bytes written since the last flush */
+        long unflushedBytes;
+
+        EchoChannel(ServerMetrics.Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    @ChannelHandler.Sharable
+    static class EchoHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            ctx.channel().attr(ECHO_CHANNEL).set(new EchoChannel(metrics.recordAccept()));
+            ctx.fireChannelActive();
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            metrics.recordClose(ctx.channel().attr(ECHO_CHANNEL).get().connection);
+            ctx.fireChannelInactive();
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            int bytes = ((ByteBuf) msg).readableBytes();
+            EchoChannel channel = ctx.channel().attr(ECHO_CHANNEL).get();
+            metrics.recordRead(channel.connection, bytes);
+            channel.unflushedBytes += bytes;
+            ctx.write(msg, ctx.voidPromise());
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+            // Counted as written once flushed, without a promise per write
+            EchoChannel channel = ctx.channel().attr(ECHO_CHANNEL).get();
+            if (channel.unflushedBytes > 0) {
+                metrics.recordWrite(channel.connection, channel.unflushedBytes);
+                channel.unflushedBytes = 0;
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            Utils.printUnlessReset(cause);
+            ctx.close();
+        }
+    }
+}
@@ -1,39 +1,62 @@
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-class NioAsyncClient {
+class NioAsyncClient implements EchoClient {
 
-    public NioAsyncClient(InetSocketAddress remote, ClientMode mode, Metrics metrics) {
+    public NioAsyncClient(ClientConfig config, Metrics metrics) {
+        if (config.mode == ClientMode.OPEN_LOOP) {
+            throw new IllegalArgumentException("NioAsyncClient does not support open-loop mode");
+        }
         this.metrics = metrics;
-        this.mode = mode;
-        this.remote = remote;
+        this.connection = metrics.newConnection();
+        this.remote = config.remote;
+        this.tuning = config.tuning;
+        this.channelGroups = config.channelGroups;
+        this.messageSizes = config.messageSizes;
+        this.maxBatchMessages = config.getMaxBatchMessages();
+        this.window = config.getWindow();
+        this.batch = new FrameBatch(config.allocateBuffer(config.getWriteBufferSize()), config.gatherThreshold);
+        this.readBuffer = config.allocateBuffer(config.readBufferSize);
+        metrics.setParameter("channelGroup", channelGroups.toString());
     }
 
     private AsynchronousSocketChannel socket;
     private final CountDownLatch quitLatch = new CountDownLatch(1);
-    private final ByteBuffer writeBuffer = ByteBuffer.allocate(1024);
-    private final ByteBuffer readBuffer = ByteBuffer.allocate(65536);
+    private final FrameBatch batch;
+    private final ByteBuffer readBuffer;
+    private final FrameCodec decoder = new FrameCodec();
+    private final FrameCodec.FrameHandler frameHandler = this::onFrame;
+    private final MessageSizes messageSizes;
+    private final int maxBatchMessages;
+    private final int window;
+    private int writeMessages;
+    private int outstanding;
+    private boolean writing;
+    private volatile boolean closed;
     private final Metrics metrics;
-    private final ClientMode mode;
+    private final Metrics.Connection connection;
     private final InetSocketAddress remote;
+    private final SocketTuning tuning;
+    private final ChannelGroups channelGroups;
 
     public void start() throws IOException {
-        socket = AsynchronousSocketChannel.open();
-        socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        socket = AsynchronousSocketChannel.open(channelGroups.next());
+        tuning.apply(socket);
         beginConnect();
     }
 
     public void close() {
+        closed = true;
         Utils.closeAndLog(socket);
-        metrics.recordDisconnect();
+        metrics.recordDisconnect(connection);
         quitLatch.countDown();
     }
 
@@ -45,62 +68,77 @@ class NioAsyncClient {
         socket.connect(remote, null, endConnect);
     }
 
-    private void beginWrite() {
+    /**
+     * Writes the next batch unless a write is already pending or the window
+     * of outstanding messages is full. Called whenever either changes.
+     */
+    private void tryBeginWrite() {
+        synchronized (this) {
+            if (writing || outstanding >= window) {
+                return;
+            }
+            writing = true;
+            writeMessages = Math.min(maxBatchMessages, window - outstanding);
+            outstanding += writeMessages;
+        }
+
         long writeTime = System.nanoTime();
-        writeBuffer.putLong(writeTime);
-        writeBuffer.flip();
-        socket.write(writeBuffer, null, endWrite);
+        batch.clear();
+        for (int i = 0; i < writeMessages; i++) {
+            batch.add(writeTime, writeTime, messageSizes.next());
+        }
+        beginWrite();
+    }
+
+    private void beginWrite() {
+        socket.write(batch.getBuffers(), 0, batch.getCount(), 0, TimeUnit.MILLISECONDS, null, endWrite);
     }
 
     private void beginRead() {
         socket.read(readBuffer, null, endRead);
     }
 
+    private void onError(Throwable exc) {
+        if (!closed) {
+            exc.printStackTrace();
+        }
+        close();
+    }
+
     private final CompletionHandler<Void, Void> endConnect = new CompletionHandler<Void, Void>() {
 
         @Override
         public void failed(Throwable exc, Void attachment) {
-            exc.printStackTrace();
-            close();
+            onError(exc);
         }
 
         @Override
         public void completed(Void result, Void attachment) {
-            metrics.recordConnect();
-            beginWrite();
-            switch (mode) {
-            case FULL_DUPLEX:
-                beginRead();
-                break;
-            case HALF_DUPLEX:
-                break;
-            }
+            metrics.recordConnect(connection);
+            beginRead();
+            tryBeginWrite();
         }
     };
 
-    private final CompletionHandler<Integer, Void> endWrite = new CompletionHandler<Integer, Void>() {
+    private final CompletionHandler<Long, Void> endWrite = new CompletionHandler<Long, Void>() {
 
         @Override
         public void failed(Throwable exc, Void attachment) {
-            exc.printStackTrace();
-            close();
+            onError(exc);
         }
 
         @Override
-        public void completed(Integer result, Void attachment) {
-            writeBuffer.compact();
-            if (result <= 0) {
+        public void completed(Long result, Void attachment) {
+            if (batch.hasRemaining()) {
+                beginWrite();
                 return;
             }
 
-            switch (mode) {
-            case FULL_DUPLEX:
-                beginWrite();
-                break;
-            case HALF_DUPLEX:
-                beginRead();
-                break;
+            metrics.recordWrite(batch.getBytes(), writeMessages);
+            synchronized (NioAsyncClient.this) {
+                writing = false;
             }
+            tryBeginWrite();
         }
     };
 
@@ -108,52 +146,45 @@ class NioAsyncClient {
 
         @Override
         public void failed(Throwable exc, Void attachment) {
-            exc.printStackTrace();
-            close();
+            onError(exc);
         }
 
         @Override
         public void completed(Integer result, Void attachment) {
-            metrics.recordRead(result);
-            if (result <= 0) {
+            if (result < 0) {
+                close();
                 return;
             }
+            metrics.recordRead(result);
 
             readBuffer.flip();
-            while (readBuffer.remaining() >= 8) {
-                long writeTime = readBuffer.getLong();
-                long readTime = System.nanoTime();
-                long latencyInNanos = readTime - writeTime;
-                metrics.recordLatency(latencyInNanos);
-            }
+            int frames = decoder.decode(readBuffer, frameHandler);
             readBuffer.compact();
 
-            switch (mode) {
-            case FULL_DUPLEX:
-                beginRead();
-                break;
-            case HALF_DUPLEX:
-                beginWrite();
-                break;
+            beginRead();
+            if (frames > 0) {
+                synchronized (NioAsyncClient.this) {
+                    outstanding -= frames;
+                }
+                tryBeginWrite();
             }
         }
     };
 
-    static public void main(String[] args) throws Exception {
-        String serverHostname = System.getProperty("server", "localhost");
-        int numClients = Integer.parseInt(System.getProperty("numClients", "12"));
-        String clientModeString = System.getProperty("clientMode", "half");
-        ClientMode clientMode = clientModeString.equals("full") ? ClientMode.FULL_DUPLEX : ClientMode.HALF_DUPLEX;
+    private void onFrame(long intendedTime, long sendTime, int frameSize) {
+        metrics.recordLatency(connection, System.nanoTime() - intendedTime, frameSize);
+    }
 
-        InetSocketAddress remote = new InetSocketAddress(serverHostname, 4726);
+    static public void main(String[] args) throws Exception {
+        ClientConfig config = ClientConfig.fromSystemProperties(12, "half");
         Metrics metrics = new Metrics();
         metrics.start();
 
-        System.out.format("Connecting to %s with %d clients using %s\n", remote, numClients, clientMode);
+        System.out.format("Connecting to %s with %d clients using %s\n", config.remote, config.numClients, config.mode);
 
         List<NioAsyncClient> clients = Stream
-                .generate(() -> new NioAsyncClient(remote, clientMode, metrics))
-                .limit(numClients)
+                .generate(() -> new NioAsyncClient(config, metrics))
+                .limit(config.numClients)
                 .collect(Collectors.toList());
 
         for (NioAsyncClient client : clients) {
@@ -0,0 +1,200 @@
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link Flow} adapters over an {@link AsynchronousSocketChannel}, built on
+ * reusable {@link NioRx.Operation}s so reads and writes allocate nothing.
+ *
+ * A read is only issued while the subscriber has outstanding demand, and the
+ * next buffer to write is only requested once the previous one has been
+ * written completely. A slow peer or consumer therefore holds up its
+ * producer instead of data piling up in memory.
+ */
+public class NioFlow {
+
+    /**
+     * Publishes what is read from a socket. Each read goes into the buffer
+     * returned by the supplier, which is emitted flipped. The subscriber owns
+     * the buffer until it requests more and must leave room in it (compact or
+     * clear) before doing so. Completes at end of stream.
+     */
+    public static Flow.Publisher<ByteBuffer> reads(AsynchronousSocketChannel socket, Supplier<ByteBuffer> buffers) {
+        return new ReadPublisher(socket, buffers);
+    }
+
+    /**
+     * Writes each buffer to a socket, requesting the next one once it has been
+     * written completely. The socket is closed when the publisher terminates
+     * or a write fails.
+     *
+     * @param onWritten Called with each buffer once it has been written
+     * @param onClosed Called once after the socket has been closed
+     */
+    public static Flow.Subscriber<ByteBuffer> writes(
+            AsynchronousSocketChannel socket,
+            Consumer<ByteBuffer> onWritten,
+            Runnable onClosed) {
+        return new WriteSubscriber(socket, onWritten, onClosed);
+    }
+
+    /**
+     * Adds to the demand of a subscription, saturating at Long.MAX_VALUE.
+     *
+     * @return Demand before the addition
+     */
+    static long addDemand(AtomicLong demand, long n) {
+        return demand.getAndAccumulate(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+    }
+
+    static class ReadPublisher implements
+            Flow.Publisher<ByteBuffer>,
+            Flow.Subscription,
+            CompletionHandler<Integer, NioRx.Operation<ByteBuffer, Integer>> {
+
+        private final NioRx.Operation<ByteBuffer, Integer> read;
+        private final Supplier<ByteBuffer> buffers;
+        private final AtomicLong demand = new AtomicLong();
+        private Flow.Subscriber<? super ByteBuffer> subscriber;
+        private volatile boolean cancelled;
+
+        ReadPublisher(AsynchronousSocketChannel socket, Supplier<ByteBuffer> buffers) {
+            this.read = new NioRx.Operation<>(socket::read, this);
+            this.buffers = buffers;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            if (this.subscriber != null) {
+                subscriber.onSubscribe(this);
+                subscriber.onError(new IllegalStateException("Socket reads can only be subscribed once"));
+                return;
+            }
+            this.subscriber = subscriber;
+            subscriber.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Demand must be positive"));
+                return;
+            }
+            if (addDemand(demand, n) == 0) {
+                beginRead();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private void beginRead() {
+            if (cancelled) {
+                return;
+            }
+            read.start(buffers.get());
+        }
+
+        @Override
+        public void completed(Integer result, NioRx.Operation<ByteBuffer, Integer> operation) {
+            if (cancelled) {
+                return;
+            }
+            if (result < 0) {
+                cancelled = true;
+                subscriber.onComplete();
+                return;
+            }
+
+            ByteBuffer buffer = operation.getParam();
+            buffer.flip();
+            subscriber.onNext(buffer);
+            if (demand.decrementAndGet() > 0) {
+                beginRead();
+            }
+        }
+
+        @Override
+        public void failed(Throwable exc, NioRx.Operation<ByteBuffer, Integer> operation) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            subscriber.onError(exc);
+        }
+    }
+
+    static class WriteSubscriber
+            implements Flow.Subscriber<ByteBuffer>, CompletionHandler<Integer, NioRx.Operation<ByteBuffer, Integer>> {
+
+        private final AsynchronousSocketChannel socket;
+        private final NioRx.Operation<ByteBuffer, Integer> write;
+        private final Consumer<ByteBuffer> onWritten;
+        private final Runnable onClosed;
+        private Flow.Subscription subscription;
+
+        WriteSubscriber(AsynchronousSocketChannel socket, Consumer<ByteBuffer> onWritten, Runnable onClosed) {
+            this.socket = socket;
+            this.write = new NioRx.Operation<>(socket::write, this);
+            this.onWritten = onWritten;
+            this.onClosed = onClosed;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(ByteBuffer buffer) {
+            write.start(buffer);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (socket.isOpen()) {
+                Utils.printUnlessReset(throwable);
+            }
+            close();
+        }
+
+        @Override
+        public void onComplete() {
+            close();
+        }
+
+        @Override
+        public void completed(Integer result, NioRx.Operation<ByteBuffer, Integer> operation) {
+            ByteBuffer buffer = operation.getParam();
+            if (buffer.hasRemaining()) {
+                operation.restart();
+                return;
+            }
+
+            onWritten.accept(buffer);
+            subscription.request(1);
+        }
+
+        @Override
+        public void failed(Throwable exc, NioRx.Operation<ByteBuffer, Integer> operation) {
+            if (socket.isOpen()) {
+                Utils.printUnlessReset(exc);
+            }
+            subscription.cancel();
+            close();
+        }
+
+        private void close() {
+            Utils.closeAndLog(socket);
+            onClosed.run();
+        }
+    }
+}
@@ -1,10 +1,12 @@
 import java.nio.channels.CompletionHandler;
 
 import rx.Observable;
+import rx.Subscriber;
 import rx.functions.Action2;
 import rx.functions.Action3;
 import rx.functions.Action5;
 import rx.functions.Action7;
+import rx.functions.Func0;
 
 public class NioRx {
 
@@ -146,4 +148,112 @@ public class NioRx {
             nioAction.call(param1, param2, param3, param4, param5, null, onCompleted);
         });
     }
+
+    /**
+     * An NIO asynchronous action bound once to its completion handler, so that
+     * it can be started again and again without allocating. The handler
+     * receives the operation as attachment, which lets it re-arm the
+     * operation, e.g. to finish a partial write or issue the next read.
+     *
+     * @param <T> Action parameter, e.g. the buffer to read into
+     * @param <R> Result of the action
+     */
+    public static class Operation<T, R> implements CompletionHandler<R, Void> {
+        private final Action3<T, Void, CompletionHandler<R, Void>> nioAction;
+        private final CompletionHandler<R, Operation<T, R>> handler;
+        private T param;
+
+        public Operation(
+                Action3<T, Void, CompletionHandler<R, Void>> nioAction,
+                CompletionHandler<R, Operation<T, R>> handler) {
+            this.nioAction = nioAction;
+            this.handler = handler;
+        }
+
+        /**
+         * Starts the action. Must not be called while the operation is pending.
+         */
+        public void start(T param) {
+            this.param = param;
+            nioAction.call(param, null, this);
+        }
+
+        /**
+         * Starts the action again with the same parameter.
+         */
+        public void restart() {
+            nioAction.call(param, null, this);
+        }
+
+        /**
+         * @return Parameter of the last start
+         */
+        public T getParam() {
+            return param;
+        }
+
+        @Override
+        public void completed(R result, Void attachment) {
+            handler.completed(result, this);
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            handler.failed(exc, this);
+        }
+    }
+
+    /**
+     * Repeats an NIO asynchronous action for as long as it is subscribed, e.g.
+     * to accept connections. Each subscription sets up a single
+     * {@link Operation} which is re-armed after every result.
+     *
+     * @param nioAction NIO action
+     * @param param Supplies the action parameter for each repetition
+     * @return Observable that emits the result of every repetition
+     */
+    public static <T, R> Observable<R> repeat(Action3<T, Void, CompletionHandler<R, Void>> nioAction, Func0<T> param) {
+        return Observable.create(subscriber -> {
+            Operation<T, R> operation = new Operation<>(nioAction, new RepeatHandler<>(subscriber, param));
+            operation.start(param.call());
+        });
+    }
+
+    /**
+     * Repeats an NIO asynchronous action for as long as it is subscribed.
+     *
+     * @param nioAction NIO action
+     * @return Observable that emits the result of every repetition
+     */
+    public static <R> Observable<R> repeat(Action2<Void, CompletionHandler<R, Void>> nioAction) {
+        return NioRx.<Void, R> repeat((_param, attachment, handler) -> nioAction.call(attachment, handler), () -> null);
+    }
+
+    static class RepeatHandler<T, R> implements CompletionHandler<R, Operation<T, R>> {
+        private final Subscriber<? super R> subscriber;
+        private final Func0<T> param;
+
+        RepeatHandler(Subscriber<? super R> subscriber, Func0<T> param) {
+            this.subscriber = subscriber;
+            this.param = param;
+        }
+
+        @Override
+        public void completed(R result, Operation<T, R> operation) {
+            if (subscriber.isUnsubscribed()) {
+                return;
+            }
+            subscriber.onNext(result);
+            if (!subscriber.isUnsubscribed()) {
+                operation.start(param.call());
+            }
+        }
+
+        @Override
+        public void failed(Throwable exc, Operation<T, R> operation) {
+            if (!subscriber.isUnsubscribed()) {
+                subscriber.onError(exc);
+            }
+        }
+    }
 }
@@ -5,43 +5,80 @@ import java.nio.channels.SocketChannel;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-public class NioSyncClient {
+public class NioSyncClient implements EchoClient {
 
     private SocketChannel socket;
     private final CountDownLatch closeLatch = new CountDownLatch(1);
-    ByteBuffer writeBuffer = ByteBuffer.allocate(1024);
-    ByteBuffer readBuffer = ByteBuffer.allocate(65536);
-    byte[] garbage = "alkjdshfladfhalkdcjnaldjcbalejhfalkdjchalskdjcbalskdjcblwqeubc".getBytes();
+    final ByteBuffer writeBuffer;
+    final ByteBuffer readBuffer;
+    private final FrameCodec decoder = new FrameCodec();
+    private final FrameCodec.FrameHandler frameHandler = this::onFrame;
     private final InetSocketAddress remote;
+    private final SocketTuning tuning;
     private final ClientMode mode;
+    private final ThreadMode threadMode;
     private final Metrics metrics;
-    private final Semaphore limiter = new Semaphore(200);
-    private short packetLength = -1;
+    private final Metrics.Connection connection;
+    private final long sendIntervalNanos;
+    private final MessageSizes messageSizes;
+    private final FrameBatch batch;
+    private final int maxBatchMessages;
+    private final long lingerNanos;
+    private final Semaphore limiter;
+    private volatile boolean closed;
+    private Thread writer;
 
-    public NioSyncClient(InetSocketAddress remote, ClientMode mode, Metrics metrics) {
-        this.remote = remote;
-        this.mode = mode;
+    public NioSyncClient(ClientConfig config, Metrics metrics) {
+        this.remote = config.remote;
+        this.tuning = config.tuning;
+        this.mode = config.mode;
+        this.limiter = new Semaphore(config.getWindow());
+        this.threadMode = config.threadMode;
         this.metrics = metrics;
+        this.connection = metrics.newConnection();
+        this.sendIntervalNanos = config.getSendIntervalNanos();
+        this.messageSizes = config.messageSizes;
+        this.maxBatchMessages = config.getMaxBatchMessages();
+        this.lingerNanos = config.getLingerNanos();
+        this.writeBuffer = config.allocateBuffer(config.getWriteBufferSize());
+        this.batch = new FrameBatch(writeBuffer, config.gatherThreshold);
+        this.readBuffer = config.allocateBuffer(config.readBufferSize);
     }
 
     public void start() throws IOException {
-        socket = SocketChannel.open(remote);
+        socket = SocketChannel.open();
+        tuning.apply(socket);
+        socket.connect(remote);
+        metrics.recordConnect(connection);
         switch (mode) {
         case FULL_DUPLEX:
-            new Thread(this::fullDuplexReadLoop).start();
-            new Thread(this::fullDuplexWriteLoop).start();
+        case PIPELINED:
+            threadMode.start(this::fullDuplexReadLoop);
+            writer = threadMode.start(this::fullDuplexWriteLoop);
             break;
         case HALF_DUPLEX:
-            new Thread(this::halfDuplexLoop).start();
+            threadMode.start(this::halfDuplexLoop);
+            break;
+        case OPEN_LOOP:
+            threadMode.start(this::fullDuplexReadLoop);
+            threadMode.start(this::openLoopWriteLoop);
             break;
         }
     }
 
     public void close() {
+        closed = true;
         Utils.closeAndLog(socket);
+        metrics.recordDisconnect(connection);
+        if (writer != null) {
+            // The writer may be waiting for a response that will never arrive
+            writer.interrupt();
+        }
         closeLatch.countDown();
     }
 
@@ -56,55 +93,121 @@ public class NioSyncClient {
             return bytesRead;
         }
 
-        readBuffer.flip();
-        while (readBuffer.remaining() >= 2) {
-            if (packetLength < 0) {
-                packetLength = readBuffer.getShort();
-            }
+        parseFrames();
+        return bytesRead;
+    }
 
-            if (readBuffer.remaining() < packetLength) {
-                break;
-            }
+    void parseFrames() {
+        readBuffer.flip();
+        decoder.decode(readBuffer, frameHandler);
+        readBuffer.compact();
+    }
 
-            ByteBuffer packetBuffer = ByteBuffer.allocate(packetLength);
-            readBuffer.put(packetBuffer);
-            packetBuffer.flip();
-            long writeTime = packetBuffer.getLong();
-            long readTime = System.nanoTime();
-            long latencyInNanos = readTime - writeTime;
-            metrics.recordLatency(latencyInNanos);
-            metrics.recordDisconnect();
-            packetLength = -1;
-            limiter.release();
+    private void onFrame(long intendedTime, long sendTime, int frameSize) {
+        long readTime = System.nanoTime();
+        metrics.recordLatency(connection, readTime - intendedTime, frameSize);
+        if (mode == ClientMode.OPEN_LOOP) {
+            // Nothing acquires the limiter, releasing it would overflow its permits
+            metrics.recordServiceTime(readTime - sendTime);
+            return;
         }
-        readBuffer.compact();
-        return bytesRead;
+        limiter.release();
     }
 
     private long write() throws IOException, InterruptedException {
         limiter.acquire();
-        metrics.recordConnect();
         long writeTime = System.nanoTime();
-        short length = (short) (8 + garbage.length);
-        writeBuffer.putShort(length);
-        writeBuffer.putLong(writeTime);
-        writeBuffer.flip();
-        ByteBuffer paddingBuffer = ByteBuffer.wrap(garbage);
-        long bytesWritten = socket.write(new ByteBuffer[] { writeBuffer, paddingBuffer });
-        writeBuffer.compact();
+        encode(writeTime, writeTime);
+        return flush();
+    }
+
+    /**
+     * Coalesces messages into a single write until the batch is full or no
+     * further message becomes available within the linger time.
+     */
+    private long writeBatch() throws IOException, InterruptedException {
+        limiter.acquire();
+        long lingerDeadline = System.nanoTime() + lingerNanos;
+        int messages = 0;
+        while (true) {
+            long writeTime = System.nanoTime();
+            encode(writeTime, writeTime);
+            messages++;
+            if (messages >= maxBatchMessages) {
+                break;
+            }
+
+            long lingerRemaining = Math.max(0, lingerDeadline - System.nanoTime());
+            if (!limiter.tryAcquire(lingerRemaining, TimeUnit.NANOSECONDS)) {
+                break;
+            }
+        }
+        return flush();
+    }
+
+    private void encode(long intendedTime, long sendTime) {
+        batch.add(intendedTime, sendTime, messageSizes.next());
+    }
+
+    private long flush() throws IOException {
+        long bytesWritten = 0;
+        do {
+            bytesWritten += socket.write(batch.getBuffers(), 0, batch.getCount());
+        } while (batch.hasRemaining());
+        metrics.recordWrite(bytesWritten, batch.getMessages());
+        batch.clear();
         return bytesWritten;
     }
 
     private void fullDuplexWriteLoop() {
         try {
             while (true) {
-                long bytesWritten = write();
+                long bytesWritten = writeBatch();
+                if (bytesWritten <= 0) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Sends on a fixed schedule regardless of responses. When a write stalls the
+     * missed packets are sent as soon as possible, each stamped with the time it
+     * should have been sent, so the stall shows up in the measured latency.
+     */
+    private void openLoopWriteLoop() {
+        try {
+            long intendedTime = System.nanoTime();
+            while (true) {
+                long now = System.nanoTime();
+                if (now < intendedTime) {
+                    LockSupport.parkNanos(intendedTime - now);
+                    continue;
+                }
+
+                long sendTime = System.nanoTime();
+                int messages = 0;
+                do {
+                    encode(intendedTime, sendTime);
+                    messages++;
+                    intendedTime += sendIntervalNanos;
+                } while (intendedTime <= sendTime && messages < maxBatchMessages);
+
+                long bytesWritten = flush();
                 if (bytesWritten <= 0) {
                     break;
                 }
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            if (!closed) {
+                e.printStackTrace();
+            }
         } finally {
             close();
         }
@@ -119,7 +222,9 @@ public class NioSyncClient {
                 }
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            if (!closed) {
+                e.printStackTrace();
+            }
         } finally {
             close();
         }
@@ -133,33 +238,39 @@ public class NioSyncClient {
                     break;
                 }
 
-                int bytesRead = read();
+                // A large echo takes several reads, the limiter is released once it is complete
+                int bytesRead;
+                do {
+                    bytesRead = read();
+                } while (bytesRead > 0 && limiter.availablePermits() == 0);
                 if (bytesRead <= 0) {
                     break;
                 }
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            if (!closed) {
+                e.printStackTrace();
+            }
         } finally {
             close();
         }
     }
 
     public static void main(String[] args) throws Exception {
-        String serverHostname = System.getProperty("server", "localhost");
-        int numClients = Integer.parseInt(System.getProperty("numClients", "12"));
-        String clientModeString = System.getProperty("clientMode", "half");
-        ClientMode clientMode = clientModeString.equals("full") ? ClientMode.FULL_DUPLEX : ClientMode.HALF_DUPLEX;
-
-        InetSocketAddress remote = new InetSocketAddress(serverHostname, 4726);
+        ClientConfig config = ClientConfig.fromSystemProperties(12, "half");
         Metrics metrics = new Metrics();
         metrics.start();
 
-        System.out.format("Connecting to %s with %d clients using %s\n", remote, numClients, clientMode);
+        System.out.format(
+                "Connecting to %s with %d clients using %s on %s threads\n",
+                config.remote,
+                config.numClients,
+                config.mode,
+                config.threadMode);
 
         List<NioSyncClient> clients = Stream
-                .generate(() -> new NioSyncClient(remote, clientMode, metrics))
-                .limit(numClients)
+                .generate(() -> new NioSyncClient(config, metrics))
+                .limit(config.numClients)
                 .collect(Collectors.toList());
 
         for (NioSyncClient client : clients) {
@@ -0,0 +1,251 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs every client against every server over loopback and compares the
+ * throughput and P99 latency of each combination with a checked-in baseline.
+ *
+ * Each server and each client run in a forked JVM, the server on an ephemeral
+ * port it binds itself and prints, so one combination cannot disturb the next. The results go
+ * to -Dresults (default build/perf/results.csv) next to the logs of every
+ * fork. The suite exits with status 1 when a combination is more than
+ * -Dtolerance (default 0.2) slower, or has a P99 more than -DlatencyTolerance
+ * (default 0.5) plus -DlatencySlackMs (default 0.5, as sub-millisecond
+ * loopback tails are noisy) higher, than in -Dbaseline (default perf/baseline.csv).
+ * -DupdateBaseline=true writes the results as the new baseline instead.
+ */
+public class RegressionSuite {
+
+    static final String[] MODES = { "half", "full" };
+    static final Pattern LISTENING = Pattern.compile("[Ll]istening on \\S*:(\\d+)\\b");
+
+    public static void main(String[] args) throws Exception {
+        List<String> servers = list(System.getProperty("servers", "SyncEchoServer,AsyncEchoServer,RxEchoServer"));
+        List<String> clients = list(System.getProperty("clients", "sync,async,rx,netty"));
+        int numClients = Integer.parseInt(System.getProperty("numClients", "4"));
+        int warmupSeconds = Integer.parseInt(System.getProperty("warmup", "2"));
+        int durationSeconds = Integer.parseInt(System.getProperty("duration", "5"));
+        double tolerance = Double.parseDouble(System.getProperty("tolerance", "0.2"));
+        double latencyTolerance = Double.parseDouble(System.getProperty("latencyTolerance", "0.5"));
+        double latencySlack = Double.parseDouble(System.getProperty("latencySlackMs", "0.5"));
+        Path baselinePath = Paths.get(System.getProperty("baseline", "perf/baseline.csv"));
+        Path resultsPath = Paths.get(System.getProperty("results", "build/perf/results.csv"));
+        boolean updateBaseline = Boolean.getBoolean("updateBaseline");
+
+        Path logs = Files.createDirectories(resultsPath.toAbsolutePath().getParent());
+        Map<String, double[]> baseline = Files.exists(baselinePath) ? readBaseline(baselinePath) : new LinkedHashMap<>();
+        Map<String, double[]> results = new LinkedHashMap<>();
+        List<String> regressions = new ArrayList<>();
+
+        try (PrintWriter out = new PrintWriter(resultsPath.toFile())) {
+            out.println("server,client,mode,messageRate,latencyP99Ms,baselineMessageRate,baselineLatencyP99Ms,status");
+            for (String server : servers) {
+                Path serverLog = logs.resolve(server + ".log");
+                Process serverProcess = fork(server, serverLog, "-Dport=0", "-DstatsInterval=0");
+                try {
+                    int port = awaitListening(serverProcess, serverLog);
+                    for (String client : clients) {
+                        for (String mode : MODES) {
+                            String key = server + "," + client + "," + mode;
+                            double[] result = runClient(
+                                    client,
+                                    mode,
+                                    port,
+                                    numClients,
+                                    warmupSeconds,
+                                    durationSeconds,
+                                    logs.resolve(server + "-" + client + "-" + mode));
+                            double[] expected = baseline.get(key);
+                            String status = status(result, expected, tolerance, latencyTolerance, latencySlack);
+                            if (!status.equals("ok") && !status.equals("new")) {
+                                regressions.add(key + ": " + status);
+                            }
+                            results.put(key, result);
+
+                            out.printf(
+                                    Locale.ROOT,
+                                    "%s,%.0f,%.3f,%s,%s,%s\n",
+                                    key,
+                                    result[0],
+                                    result[1],
+                                    expected == null ? "" : String.format(Locale.ROOT, "%.0f", expected[0]),
+                                    expected == null ? "" : String.format(Locale.ROOT, "%.3f", expected[1]),
+                                    status);
+                            out.flush();
+                            System.out.printf(
+                                    "%-16s %-6s %-4s %10.0f msgs/s P99 %8.3fms %s\n",
+                                    server,
+                                    client,
+                                    mode,
+                                    result[0],
+                                    result[1],
+                                    status);
+                        }
+                    }
+                } finally {
+                    serverProcess.destroyForcibly().waitFor();
+                }
+            }
+        }
+
+        System.out.printf("Results written to %s\n", resultsPath);
+        if (updateBaseline) {
+            writeBaseline(baselinePath, results);
+            System.out.printf("Baseline written to %s\n", baselinePath);
+            System.exit(0);
+        }
+        if (!regressions.isEmpty()) {
+            System.out.printf("%d regressions against %s:\n", regressions.size(), baselinePath);
+            for (String regression : regressions) {
+                System.out.printf("  %s\n", regression);
+            }
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @param properties Further system properties of the client, e.g. -DtcpNoDelay=false
+     * @return Message rate and P99 latency in ms, or zeros if the client failed
+     */
+    static double[] runClient(
+            String client,
+            String mode,
+            int port,
+            int numClients,
+            int warmupSeconds,
+            int durationSeconds,
+            Path prefix,
+            String... properties) throws IOException, InterruptedException {
+        Path output = Paths.get(prefix + ".csv");
+        Files.deleteIfExists(output);
+        List<String> clientProperties = new ArrayList<>(Arrays.asList(
+                "-Dport=" + port,
+                "-Dclient=" + client,
+                "-DclientMode=" + mode,
+                "-DnumClients=" + numClients,
+                "-Dwarmup=" + warmupSeconds,
+                "-Dduration=" + durationSeconds,
+                "-Doutput=" + output));
+        clientProperties.addAll(Arrays.asList(properties));
+        Process process = fork("BenchmarkDriver", Paths.get(prefix + ".log"), clientProperties.toArray(new String[0]));
+        if (!process.waitFor(warmupSeconds + durationSeconds + 30, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+        }
+        if (!Files.exists(output)) {
+            return new double[] { 0, 0 };
+        }
+
+        List<String> lines = Files.readAllLines(output);
+        if (lines.size() < 2) {
+            return new double[] { 0, 0 };
+        }
+        List<String> header = Arrays.asList(lines.get(0).split(","));
+        String[] row = lines.get(1).split(",");
+        return new double[] {
+                Double.parseDouble(row[header.indexOf("messageRate")]),
+                Double.parseDouble(row[header.indexOf("latencyP99Ms")]) };
+    }
+
+    static String status(
+            double[] result,
+            double[] expected,
+            double tolerance,
+            double latencyTolerance,
+            double latencySlack) {
+        if (result[0] == 0) {
+            return "failed";
+        }
+        if (expected == null) {
+            return "new";
+        }
+        List<String> problems = new ArrayList<>();
+        if (result[0] < expected[0] * (1 - tolerance)) {
+            problems.add(String.format(Locale.ROOT, "throughput %.0f%%", (result[0] / expected[0] - 1) * 100));
+        }
+        if (result[1] > expected[1] * (1 + latencyTolerance) + latencySlack) {
+            problems.add(String.format(Locale.ROOT, "P99 +%.0f%%", (result[1] / expected[1] - 1) * 100));
+        }
+        return problems.isEmpty() ? "ok" : String.join(" ", problems);
+    }
+
+    static Process fork(String mainClass, Path log, String... properties) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(Arrays.asList(properties));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass);
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+    }
+
+    /**
+     * Waits for a server started with -Dport=0 to print the address it is
+     * listening on. Letting the server pick the port leaves no window for
+     * another process to take it.
+     *
+     * @param log Output of the server
+     * @return Port the server is listening on
+     */
+    static int awaitListening(Process server, Path log) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            for (String line : Files.readAllLines(log)) {
+                Matcher matcher = LISTENING.matcher(line);
+                if (matcher.find()) {
+                    return Integer.parseInt(matcher.group(1));
+                }
+            }
+            if (!server.isAlive()) {
+                throw new IOException("Server exited with status " + server.exitValue());
+            }
+            Thread.sleep(100);
+        }
+        throw new IOException("Server did not print the address it listens on to " + log);
+    }
+
+    static Map<String, double[]> readBaseline(Path path) throws IOException {
+        Map<String, double[]> baseline = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(path);
+        for (String line : lines.subList(1, lines.size())) {
+            String[] row = line.split(",");
+            baseline.put(
+                    row[0] + "," + row[1] + "," + row[2],
+                    new double[] { Double.parseDouble(row[3]), Double.parseDouble(row[4]) });
+        }
+        return baseline;
+    }
+
+    static void writeBaseline(Path path, Map<String, double[]> results) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (PrintWriter out = new PrintWriter(path.toFile())) {
+            out.println("server,client,mode,messageRate,latencyP99Ms");
+            for (Map.Entry<String, double[]> result : results.entrySet()) {
+                out.printf(Locale.ROOT, "%s,%.0f,%.3f\n", result.getKey(), result.getValue()[0], result.getValue()[1]);
+            }
+        }
+    }
+
+    static List<String> list(String values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values.split(",")) {
+            list.add(value.trim());
+        }
+        return list;
+    }
+}
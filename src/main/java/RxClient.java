@@ -5,43 +5,60 @@ import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import rx.Observable;
-import rx.subjects.PublishSubject;
 
-public class RxClient {
+public class RxClient implements EchoClient {
 
     private AsynchronousSocketChannel socket;
     private final CountDownLatch closeLatch = new CountDownLatch(1);
-    private final ByteBuffer writeBuffer = ByteBuffer.allocate(1024);
-    private final ByteBuffer readBuffer = ByteBuffer.allocate(65536);
+    private final ByteBuffer writeBuffer;
+    private final ByteBuffer readBuffer;
+    private final FrameCodec decoder = new FrameCodec();
+    private final FrameCodec.FrameHandler frameHandler = this::onFrame;
+    private final MessageSizes messageSizes;
     private final InetSocketAddress remote;
-    private final ClientMode mode;
+    private final SocketTuning tuning;
     private final Metrics metrics;
-
-    public RxClient(InetSocketAddress remote, ClientMode mode, Metrics metrics) {
-        this.remote = remote;
-        this.mode = mode;
+    private final Metrics.Connection connection;
+    private final ChannelGroups channelGroups;
+    private final FramePublisher framePublisher;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    public RxClient(ClientConfig config, Metrics metrics) {
+        if (config.mode == ClientMode.OPEN_LOOP) {
+            throw new IllegalArgumentException("RxClient does not support open-loop mode");
+        }
+        this.remote = config.remote;
+        this.tuning = config.tuning;
+        this.channelGroups = config.channelGroups;
         this.metrics = metrics;
+        this.connection = metrics.newConnection();
+        this.messageSizes = config.messageSizes;
+        this.writeBuffer = config.allocateBuffer(messageSizes.getMaxSize());
+        this.framePublisher = new FramePublisher(config.getWindow());
+        this.readBuffer = config.allocateBuffer(config.readBufferSize);
+        metrics.setParameter("channelGroup", channelGroups.toString());
     }
 
     public void start() throws IOException {
-        socket = AsynchronousSocketChannel.open();
-        switch (mode) {
-        case FULL_DUPLEX:
-            startFullDuplex();
-            break;
-        case HALF_DUPLEX:
-            startHalfDuplex();
-            break;
-        }
+        socket = AsynchronousSocketChannel.open(channelGroups.next());
+        tuning.apply(socket);
+        connect().subscribe(_v -> startFlows(), this::onError);
     }
 
     public void close() {
+        if (closed.getAndSet(true)) {
+            return;
+        }
         Utils.closeAndLog(socket);
-        metrics.recordDisconnect();
+        metrics.recordDisconnect(connection);
         closeLatch.countDown();
     }
 
@@ -53,95 +70,129 @@ public class RxClient {
         return NioRx.<SocketAddress, Void> wrap(socket::connect, remote);
     }
 
-    private Observable<Integer> read() {
-        return NioRx.<ByteBuffer, Integer> wrap(socket::read, readBuffer)
-                .doOnNext(this::onNextRead)
-                .takeWhile(this::greaterThanZero);
-    }
+    /**
+     * Reads from the socket one buffer at a time, decoding the frames of each
+     * read before requesting the next.
+     */
+    private final Flow.Subscriber<ByteBuffer> readSubscriber = new Flow.Subscriber<ByteBuffer>() {
+        private Flow.Subscription subscription;
+        private int carriedBytes;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
 
-    private void onNextRead(int bytesRead) {
-        metrics.recordRead(bytesRead);
+        @Override
+        public void onNext(ByteBuffer buffer) {
+            metrics.recordRead(buffer.remaining() - carriedBytes);
+            decoder.decode(buffer, frameHandler);
+            buffer.compact();
+            carriedBytes = buffer.position();
+            subscription.request(1);
+        }
 
-        readBuffer.flip();
-        while (readBuffer.remaining() >= 8) {
-            long writeTime = readBuffer.getLong();
-            long readTime = System.nanoTime();
-            long latencyInNanos = readTime - writeTime;
-            metrics.recordLatency(latencyInNanos);
+        @Override
+        public void onError(Throwable throwable) {
+            RxClient.this.onError(throwable);
         }
-        readBuffer.compact();
-    }
 
-    private Observable<Integer> write() {
-        long writeTime = System.nanoTime();
-        writeBuffer.putLong(writeTime);
-        writeBuffer.flip();
-        return NioRx.<ByteBuffer, Integer> wrap(socket::write, writeBuffer)
-                .doOnNext(this::onNextWrite)
-                .takeWhile(this::greaterThanZero);
-    }
+        @Override
+        public void onComplete() {
+            close();
+        }
+    };
 
-    private void onNextWrite(int bytesWritten) {
-        writeBuffer.compact();
+    private void onFrame(long intendedTime, long sendTime, int frameSize) {
+        metrics.recordLatency(connection, System.nanoTime() - intendedTime, frameSize);
+        framePublisher.release();
     }
 
-    private void startFullDuplex() {
-        PublishSubject<Integer> writeLoop = PublishSubject.create();
-        writeLoop
-                .flatMap(_i -> write())
-                .subscribe(writeLoop::onNext, this::onError);
-
-        PublishSubject<Integer> readLoop = PublishSubject.create();
-        readLoop
-                .flatMap(_i -> read())
-                .subscribe(readLoop::onNext, this::onError);
-
-        connect()
-                .subscribe(_v -> {
-                    metrics.recordConnect();
-                    writeLoop.onNext(0);
-                    readLoop.onNext(0);
-                }, this::onError);
+    /**
+     * Emits one encoded frame per request, but never more than the window
+     * ahead of the echoes received. The write buffer is reused, which is
+     * safe because the write subscriber only requests the next frame once
+     * the previous one has been written.
+     */
+    class FramePublisher implements Flow.Publisher<ByteBuffer>, Flow.Subscription {
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicLong window;
+        private final AtomicInteger wip = new AtomicInteger();
+        private Flow.Subscriber<? super ByteBuffer> subscriber;
+        private volatile boolean cancelled;
+
+        FramePublisher(long window) {
+            this.window = new AtomicLong(window);
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+            subscriber.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n) {
+            NioFlow.addDemand(demand, n);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        void release() {
+            window.incrementAndGet();
+            drain();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                while (!cancelled && demand.get() > 0 && window.get() > 0) {
+                    demand.decrementAndGet();
+                    window.decrementAndGet();
+                    writeBuffer.clear();
+                    long writeTime = System.nanoTime();
+                    FrameCodec.encode(writeBuffer, writeTime, writeTime, messageSizes.next());
+                    writeBuffer.flip();
+                    subscriber.onNext(writeBuffer);
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
     }
 
-    private void startHalfDuplex() {
-        PublishSubject<Integer> loop = PublishSubject.create();
-        loop
-                .flatMap(_i -> write())
-                .flatMap(_i -> read())
-                .subscribe(loop::onNext, this::onError);
-
-        connect()
-                .subscribe(_v -> {
-                    metrics.recordConnect();
-                    loop.onNext(0);
-                }, this::onError);
+    private void startFlows() {
+        metrics.recordConnect(connection);
+        NioFlow.reads(socket, () -> readBuffer).subscribe(readSubscriber);
+        framePublisher.subscribe(NioFlow.writes(socket, this::onWritten, this::close));
     }
 
-    private boolean greaterThanZero(int value) {
-        return value > 0;
+    private void onWritten(ByteBuffer buffer) {
+        metrics.recordWrite(buffer.limit(), 1);
     }
 
     private void onError(Throwable t) {
-        t.printStackTrace();
+        if (!closed.get()) {
+            t.printStackTrace();
+        }
         close();
     }
 
     public static void main(String[] args) throws Exception {
-        String serverHostname = System.getProperty("server", "localhost");
-        int numClients = Integer.parseInt(System.getProperty("numClients", "4"));
-        String clientModeString = System.getProperty("clientMode", "full");
-        ClientMode clientMode = clientModeString.equals("full") ? ClientMode.FULL_DUPLEX : ClientMode.HALF_DUPLEX;
-
-        InetSocketAddress remote = new InetSocketAddress(serverHostname, 4726);
+        ClientConfig config = ClientConfig.fromSystemProperties(4, "full");
         Metrics metrics = new Metrics();
         metrics.start();
 
-        System.out.format("Connecting to %s with %d clients using %s\n", remote, numClients, clientMode);
+        System.out.format("Connecting to %s with %d clients using %s\n", config.remote, config.numClients, config.mode);
 
         List<RxClient> clients = Stream
-                .generate(() -> new RxClient(remote, clientMode, metrics))
-                .limit(numClients)
+                .generate(() -> new RxClient(config, metrics))
+                .limit(config.numClients)
                 .collect(Collectors.toList());
 
         for (RxClient client : clients) {
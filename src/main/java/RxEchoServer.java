@@ -1,62 +1,92 @@
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.SocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.util.concurrent.CountDownLatch;
-
-import rx.subjects.PublishSubject;
+import java.util.concurrent.Flow;
 
 public class RxEchoServer {
 
-    public static final int PORT = 4726;
-    public static final int BUFFER_SIZE = 65536;
+    public static final int PORT = Integer.getInteger("port", 4726);
+    public static final int BUFFER_SIZE = Integer.getInteger("bufferSize", 65536);
+    public static final int MIN_BUFFER_SIZE = 512;
+
+    static final BufferPool bufferPool = new BufferPool(MIN_BUFFER_SIZE, BUFFER_SIZE);
+    static final ServerMetrics metrics = new ServerMetrics("rx");
+    static final SocketTuning tuning = SocketTuning.fromSystemProperties();
 
     public static void main(String[] args) throws Exception {
-        startServer();
+        startServer(ChannelGroups.fromSystemProperties());
     }
 
-    static void startServer() throws IOException, InterruptedException {
+    static void startServer(ChannelGroups channelGroups) throws IOException, InterruptedException {
         CountDownLatch quitLatch = new CountDownLatch(1);
-        AsynchronousServerSocketChannel server = AsynchronousServerSocketChannel.open();
         InetSocketAddress local = new InetSocketAddress(PORT);
-        server.bind(local);
-        System.out.printf("Rx server listening on %s\n", local);
-
-        PublishSubject<Void> acceptLoop = PublishSubject.create();
-        acceptLoop
-                .flatMap(_v -> NioRx.<AsynchronousSocketChannel> wrap(server::accept))
-                .map(RxEchoServer::onAccept)
-                .subscribe(
-                        acceptLoop::onNext,
-                        Throwable::printStackTrace);
+        AsynchronousServerSocketChannel[] servers = channelGroups.bindServers(local, tuning);
+        System.out.printf("Rx server listening on %s using %s channel group\n", servers[0].getLocalAddress(), channelGroups);
+        metrics.setBufferBytes(bufferPool::getLeasedBytes);
+        metrics.start();
 
-        acceptLoop.doOnTerminate(quitLatch::countDown);
-        acceptLoop.onNext(null);
+        for (AsynchronousServerSocketChannel server : servers) {
+            startAcceptLoop(server);
+        }
         quitLatch.await();
     }
 
-    static Void onAccept(AsynchronousSocketChannel socket) {
-        SocketAddress remote = Utils.getRemoteAddress(socket);
-        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
-
-        System.out.printf("Client connected from %s\n", remote);
-        PublishSubject<Integer> clientLoop = PublishSubject.create();
-        clientLoop
-                .flatMap(_i -> NioRx.<ByteBuffer, Integer> wrap(socket::read, buffer))
-                .takeWhile(RxEchoServer::greaterThanZero)
-                .doOnNext(_i -> buffer.flip())
-                .flatMap(_i -> NioRx.<ByteBuffer, Integer> wrap(socket::write, buffer))
-                .takeWhile(RxEchoServer::greaterThanZero)
-                .doOnNext(_i -> buffer.compact())
-                .subscribe(clientLoop::onNext, Throwable::printStackTrace);
-
-        clientLoop.onNext(0);
-        return null;
+    static void startAcceptLoop(AsynchronousServerSocketChannel server) {
+        NioRx.<AsynchronousSocketChannel> repeat(server::accept)
+                .subscribe(
+                        RxEchoServer::onAccept,
+                        Throwable::printStackTrace);
     }
 
-    static boolean greaterThanZero(int value) {
-        return value > 0;
+    /**
+     * Echoes through a socket read publisher feeding a socket write subscriber,
+     * so the next read is only issued once the previous data has been written.
+     * Reads are counted as they reach the writer and writes once complete, so
+     * a buffer waiting to be written shows as buffered.
+     */
+    static void onAccept(AsynchronousSocketChannel socket) {
+        ConnectionBuffer buffer = new ConnectionBuffer(bufferPool);
+
+        if (Utils.LOG_CONNECTIONS) {
+            System.out.printf("Client connected from %s\n", Utils.getRemoteAddress(socket));
+        }
+        ServerMetrics.Connection connection = metrics.recordAccept();
+        tuning.applyAndLog(socket);
+        Flow.Subscriber<ByteBuffer> writes = NioFlow.writes(
+                socket,
+                written -> {
+                    metrics.recordWrite(connection, written.limit());
+                    buffer.drained(written.limit() == written.capacity());
+                },
+                () -> {
+                    buffer.release();
+                    metrics.recordClose(connection);
+                });
+        NioFlow.reads(socket, buffer::get).subscribe(new Flow.Subscriber<ByteBuffer>() {
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                writes.onSubscribe(subscription);
+            }
+
+            @Override
+            public void onNext(ByteBuffer read) {
+                metrics.recordRead(connection, read.remaining());
+                writes.onNext(read);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                writes.onError(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                writes.onComplete();
+            }
+        });
     }
 }
@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class SelectorEchoServer {
+
+    public static final int PORT = Integer.getInteger("port", 4726);
+    public static final int BUFFER_SIZE = Integer.getInteger("bufferSize", 65536);
+    public static final int MIN_PENDING_SIZE = 512;
+
+    static final BufferPool pendingPool = new BufferPool(MIN_PENDING_SIZE, BUFFER_SIZE);
+    static final ServerMetrics metrics = new ServerMetrics("selector");
+    static final SocketTuning tuning = SocketTuning.fromSystemProperties();
+
+    public static void main(String[] args) throws Exception {
+        int numReactors = Integer.parseInt(
+                System.getProperty("numReactors", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        startServer(numReactors);
+    }
+
+    static void startServer(int numReactors) throws IOException {
+        Reactor[] reactors = new Reactor[numReactors];
+        for (int i = 0; i < numReactors; i++) {
+            reactors[i] = new Reactor();
+            new Thread(reactors[i], "reactor-" + i).start();
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            InetSocketAddress local = new InetSocketAddress(PORT);
+            tuning.bind(server, local);
+            System.out.printf("Selector server listening on %s with %d reactors\n", server.getLocalAddress(), numReactors);
+            metrics.setBufferBytes(pendingPool::getLeasedBytes);
+            metrics.start();
+            acceptLoop(server, reactors);
+        }
+    }
+
+    /**
+     * Accepts every pending connection each time the listening socket becomes
+     * ready, and wakes each reactor once per batch rather than once per
+     * connection, so bursts of connects cost few wake-ups.
+     */
+    static void acceptLoop(ServerSocketChannel server, Reactor[] reactors) throws IOException {
+        boolean[] assigned = new boolean[reactors.length];
+        int next = 0;
+        server.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            while (true) {
+                selector.select();
+                selector.selectedKeys().clear();
+
+                SocketChannel client;
+                while ((client = server.accept()) != null) {
+                    ServerMetrics.Connection connection = metrics.recordAccept();
+                    tuning.applyAndLog(client);
+                    reactors[next].registrations.add(new Client(client, connection));
+                    assigned[next] = true;
+                    next = (next + 1) % reactors.length;
+                }
+
+                for (int i = 0; i < reactors.length; i++) {
+                    if (assigned[i]) {
+                        reactors[i].selector.wakeup();
+                        assigned[i] = false;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Attachment of a connection's key
+     */
+    static class Client {
+        final SocketChannel socket;
+        final ServerMetrics.Connection connection;
+        /** Leased while a write is incomplete */
+        ByteBuffer pending;
+
+        Client(SocketChannel socket, ServerMetrics.Connection connection) {
+            this.socket = socket;
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * Selector loop that owns a set of connections. All connections of a
+     * reactor share one direct read buffer, a connection only holds its own
+     * buffer, leased from a pool, while a write to it is incomplete.
+     */
+    static class Reactor implements Runnable {
+        final Selector selector;
+        final Queue<Client> registrations = new ConcurrentLinkedQueue<>();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Reactor() throws IOException {
+            selector = Selector.open();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    selector.select();
+                    registerPending();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                Utils.closeAndLog(selector);
+            }
+        }
+
+        private void registerPending() {
+            Client client;
+            while ((client = registrations.poll()) != null) {
+                try {
+                    client.socket.configureBlocking(false);
+                    client.socket.register(selector, SelectionKey.OP_READ, client);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    Utils.closeAndLog(client.socket);
+                    metrics.recordClose(client.connection);
+                }
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            if (!key.isValid()) {
+                return;
+            }
+
+            try {
+                if (key.isWritable()) {
+                    handleWrite(key);
+                } else if (key.isReadable()) {
+                    handleRead(key);
+                }
+            } catch (IOException e) {
+                Utils.printUnlessReset(e);
+                close(key);
+            }
+        }
+
+        private void handleRead(SelectionKey key) throws IOException {
+            Client client = (Client) key.attachment();
+            SocketChannel socket = client.socket;
+            while (true) {
+                int bytesRead = socket.read(buffer);
+                if (bytesRead < 0) {
+                    close(key);
+                    return;
+                }
+                if (bytesRead == 0) {
+                    return;
+                }
+                metrics.recordRead(client.connection, bytesRead);
+
+                buffer.flip();
+                metrics.recordWrite(client.connection, socket.write(buffer));
+                if (buffer.hasRemaining()) {
+                    ByteBuffer pending = pendingPool.lease(buffer.remaining());
+                    pending.put(buffer);
+                    pending.flip();
+                    buffer.clear();
+                    client.pending = pending;
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                buffer.clear();
+
+                if (bytesRead < buffer.capacity()) {
+                    return;
+                }
+            }
+        }
+
+        private void handleWrite(SelectionKey key) throws IOException {
+            Client client = (Client) key.attachment();
+            ByteBuffer pending = client.pending;
+            metrics.recordWrite(client.connection, client.socket.write(pending));
+            if (pending.hasRemaining()) {
+                return;
+            }
+
+            pendingPool.release(pending);
+            client.pending = null;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void close(SelectionKey key) {
+            key.cancel();
+            Client client = (Client) key.attachment();
+            if (client.pending != null) {
+                pendingPool.release(client.pending);
+                client.pending = null;
+            }
+            Utils.closeAndLog(client.socket);
+            metrics.recordClose(client.connection);
+        }
+    }
+}
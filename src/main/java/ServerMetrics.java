@@ -0,0 +1,335 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import rx.Observable;
+
+/**
+ * Counters of an echo server, so its saturation can be seen independently of
+ * what the clients measure. The counters are {@link LongAdder}s, which keep
+ * the I/O threads from contending on a single cache line.
+ *
+ * Each connection also tracks the bytes it has read and not yet written back,
+ * which is what its buffers hold. The summary reports their sum and their
+ * distribution over the open connections, a server falling behind shows as
+ * connections holding data.
+ *
+ * A summary line is printed every -DstatsInterval seconds (default 5, 0
+ * disables it) and -DstatsPort serves the same values as JSON from
+ * http://localhost:port/stats. The counters are also published over JMX, see
+ * {@link ServerMetricsMXBean}.
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+
+    private final String server;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder readBytes = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder writeBytes = new LongAdder();
+    private LongSupplier bufferBytes = () -> 0;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    private final long startTime = System.nanoTime();
+    private long lastUpdateTime = startTime;
+    private long lastAccepted;
+    private long lastReads;
+    private long lastReadBytes;
+    private long lastWrites;
+    private long lastWriteBytes;
+
+    private volatile double acceptRate;
+    private volatile double readRate;
+    private volatile double readByteRate;
+    private volatile double writeRate;
+    private volatile double writeByteRate;
+
+    /**
+     * Bytes one connection has read and not yet written back. Only updated by
+     * the thread currently serving the connection.
+     */
+    public static class Connection {
+        private volatile long bufferedBytes;
+        private volatile long peakBufferedBytes;
+
+        void add(long bytes) {
+            long buffered = bufferedBytes + bytes;
+            bufferedBytes = buffered;
+            if (buffered > peakBufferedBytes) {
+                peakBufferedBytes = buffered;
+            }
+        }
+    }
+
+    /**
+     * Buffered bytes of the open connections at one point in time
+     */
+    static class Occupancy {
+        long total;
+        long p50;
+        long p99;
+        long max;
+        /** Most any open connection has held at once */
+        long peak;
+    }
+
+    /**
+     * @param server Name of the server shown with the statistics
+     */
+    public ServerMetrics(String server) {
+        this.server = server;
+    }
+
+    /**
+     * @param bufferBytes Memory allocated to buffers, whether or not they hold data
+     */
+    public void setBufferBytes(LongSupplier bufferBytes) {
+        this.bufferBytes = bufferBytes;
+    }
+
+    /**
+     * Starts the summary line and the stats endpoint as configured by system properties.
+     */
+    public void start() throws IOException {
+        long interval = Long.parseLong(System.getProperty("statsInterval", "5"));
+        // The rates are still updated for JMX when the summary line is disabled
+        boolean display = interval > 0;
+        long period = display ? interval : 5;
+        Observable.interval(period, period, TimeUnit.SECONDS).subscribe(i -> update(display));
+        Utils.registerMBean(this, "NetworkTests:type=ServerMetrics,name=" + server);
+
+        String statsPort = System.getProperty("statsPort");
+        if (statsPort != null) {
+            InetSocketAddress local = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(statsPort));
+            HttpServer http = HttpServer.create(local, 0);
+            http.createContext("/stats", this::handleStats);
+            http.start();
+            System.out.printf("Stats served from http://%s:%d/stats\n", local.getHostString(), local.getPort());
+        }
+    }
+
+    /**
+     * @return The new connection, to pass to the other record methods
+     */
+    public Connection recordAccept() {
+        accepted.increment();
+        Connection connection = new Connection();
+        connections.add(connection);
+        return connection;
+    }
+
+    public void recordClose(Connection connection) {
+        closed.increment();
+        connections.remove(connection);
+    }
+
+    public void recordRead(Connection connection, long bytes) {
+        reads.increment();
+        readBytes.add(bytes);
+        connection.add(bytes);
+    }
+
+    /**
+     * Records a write of bytes the connection has read
+     */
+    public void recordWrite(Connection connection, long bytes) {
+        recordWrite(bytes);
+        connection.add(-bytes);
+    }
+
+    /**
+     * Records a write of bytes that did not come from the connection, e.g. from a file
+     */
+    public void recordWrite(long bytes) {
+        writes.increment();
+        writeBytes.add(bytes);
+    }
+
+    Occupancy occupancy() {
+        Occupancy occupancy = new Occupancy();
+        long[] buffered = new long[connections.size()];
+        int count = 0;
+        for (Connection connection : connections) {
+            if (count == buffered.length) {
+                // Accepted since the size was taken
+                break;
+            }
+            buffered[count++] = connection.bufferedBytes;
+            occupancy.total += buffered[count - 1];
+            occupancy.peak = Math.max(occupancy.peak, connection.peakBufferedBytes);
+        }
+        if (count > 0) {
+            Arrays.sort(buffered, 0, count);
+            occupancy.p50 = buffered[(count - 1) / 2];
+            occupancy.p99 = buffered[(int) Math.ceil(0.99 * count) - 1];
+            occupancy.max = buffered[count - 1];
+        }
+        return occupancy;
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return accepted.sum() - closed.sum();
+    }
+
+    @Override
+    public long getTotalConnections() {
+        return accepted.sum();
+    }
+
+    @Override
+    public long getBytesEchoed() {
+        return writeBytes.sum();
+    }
+
+    @Override
+    public long getBufferBytes() {
+        return bufferBytes.getAsLong();
+    }
+
+    @Override
+    public long getBufferedBytes() {
+        return occupancy().total;
+    }
+
+    @Override
+    public double getAcceptRate() {
+        return acceptRate;
+    }
+
+    @Override
+    public double getReadRate() {
+        return readRate;
+    }
+
+    @Override
+    public double getReadByteRate() {
+        return readByteRate;
+    }
+
+    @Override
+    public double getWriteRate() {
+        return writeRate;
+    }
+
+    @Override
+    public double getWriteByteRate() {
+        return writeByteRate;
+    }
+
+    /**
+     * @return Totals since the server started and the rates of the last summary interval
+     */
+    public synchronized Map<String, Object> values() {
+        Occupancy occupancy = occupancy();
+
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("server", server);
+        values.put("uptimeSeconds", (double) (System.nanoTime() - startTime) * 1e-9);
+        values.put("activeConnections", getActiveConnections());
+        values.put("totalConnections", accepted.sum());
+        values.put("reads", reads.sum());
+        values.put("readBytes", readBytes.sum());
+        values.put("writes", writes.sum());
+        values.put("bytesEchoed", writeBytes.sum());
+        values.put("bufferBytes", bufferBytes.getAsLong());
+        values.put("bufferedBytes", occupancy.total);
+        values.put("bufferedBytesP50", occupancy.p50);
+        values.put("bufferedBytesP99", occupancy.p99);
+        values.put("bufferedBytesMax", occupancy.max);
+        values.put("peakBufferedBytes", occupancy.peak);
+        values.put("acceptRate", acceptRate);
+        values.put("readRate", readRate);
+        values.put("readByteRate", readByteRate);
+        values.put("writeRate", writeRate);
+        values.put("writeByteRate", writeByteRate);
+        return values;
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Object> value : values().entrySet()) {
+            json.append('"').append(value.getKey()).append("\":");
+            if (value.getValue() instanceof String) {
+                json.append('"').append(value.getValue()).append('"');
+            } else if (value.getValue() instanceof Double) {
+                json.append(String.format(Locale.ROOT, "%.3f", (Double) value.getValue()));
+            } else {
+                json.append(value.getValue());
+            }
+            json.append(',');
+        }
+        json.setCharAt(json.length() - 1, '}');
+        return json.toString();
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        byte[] body = (toJson() + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private synchronized void update(boolean display) {
+        long now = System.nanoTime();
+        double timeInSeconds = (double) (now - lastUpdateTime) * 1e-9;
+        lastUpdateTime = now;
+
+        long acceptedNow = accepted.sum();
+        long readsNow = reads.sum();
+        long readBytesNow = readBytes.sum();
+        long writesNow = writes.sum();
+        long writeBytesNow = writeBytes.sum();
+
+        acceptRate = (double) (acceptedNow - lastAccepted) / timeInSeconds;
+        readRate = (double) (readsNow - lastReads) / timeInSeconds;
+        readByteRate = (double) (readBytesNow - lastReadBytes) / timeInSeconds;
+        writeRate = (double) (writesNow - lastWrites) / timeInSeconds;
+        writeByteRate = (double) (writeBytesNow - lastWriteBytes) / timeInSeconds;
+
+        lastAccepted = acceptedNow;
+        lastReads = readsNow;
+        lastReadBytes = readBytesNow;
+        lastWrites = writesNow;
+        lastWriteBytes = writeBytesNow;
+        if (!display) {
+            return;
+        }
+
+        Occupancy occupancy = occupancy();
+        System.out
+                .printf(
+                        "Server %s: Connections: %d (%d total, %.0f accepts/s), Reads: %.0f/s %.2f bytes/s, Writes: %.0f/s %.2f bytes/s, Buffers: %d bytes, Buffered: %d bytes (per connection P50 %d P99 %d Max %d Peak %d)\n",
+                        server,
+                        getActiveConnections(),
+                        acceptedNow,
+                        acceptRate,
+                        readRate,
+                        readByteRate,
+                        writeRate,
+                        writeByteRate,
+                        bufferBytes.getAsLong(),
+                        occupancy.total,
+                        occupancy.p50,
+                        occupancy.p99,
+                        occupancy.max,
+                        occupancy.peak);
+    }
+}
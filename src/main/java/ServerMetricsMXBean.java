@@ -0,0 +1,32 @@
+/**
+ * Server counters published over JMX as NetworkTests:type=ServerMetrics,name=server.
+ * Rates cover the last summary interval.
+ */
+public interface ServerMetricsMXBean {
+
+    long getActiveConnections();
+
+    long getTotalConnections();
+
+    long getBytesEchoed();
+
+    /**
+     * @return Memory allocated to connection buffers
+     */
+    long getBufferBytes();
+
+    /**
+     * @return Bytes read and not yet written back, summed over the open connections
+     */
+    long getBufferedBytes();
+
+    double getAcceptRate();
+
+    double getReadRate();
+
+    double getReadByteRate();
+
+    double getWriteRate();
+
+    double getWriteByteRate();
+}
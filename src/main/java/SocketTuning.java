@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+
+import io.netty.bootstrap.AbstractBootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelOption;
+
+/**
+ * Socket options applied by every server and client, so a run differs from
+ * the next only in what it is meant to compare. Read from system properties:
+ * <ul>
+ * <li>-DtcpNoDelay (default true), disables Nagle's algorithm</li>
+ * <li>-DreceiveBufferSize and -DsendBufferSize (default 0, the OS default),
+ * SO_RCVBUF and SO_SNDBUF. Setting them turns off the kernel's autotuning on
+ * Linux.</li>
+ * <li>-Dbacklog (default 0, the JDK default of 50), length of the accept queue</li>
+ * <li>-DreuseAddress (default true), SO_REUSEADDR on listening sockets</li>
+ * </ul>
+ * The receive buffer is set on listening sockets too, as accepted sockets
+ * inherit it and a TCP window above 64KB is only negotiated if it is set
+ * before the connection is established.
+ */
+public class SocketTuning {
+
+    public boolean tcpNoDelay;
+    public int receiveBufferSize;
+    public int sendBufferSize;
+    public int backlog;
+    public boolean reuseAddress;
+
+    public static SocketTuning fromSystemProperties() {
+        SocketTuning tuning = new SocketTuning();
+        tuning.tcpNoDelay = Boolean.parseBoolean(System.getProperty("tcpNoDelay", "true"));
+        tuning.receiveBufferSize = Integer.parseInt(System.getProperty("receiveBufferSize", "0"));
+        tuning.sendBufferSize = Integer.parseInt(System.getProperty("sendBufferSize", "0"));
+        tuning.backlog = Integer.parseInt(System.getProperty("backlog", "0"));
+        tuning.reuseAddress = Boolean.parseBoolean(System.getProperty("reuseAddress", "true"));
+        return tuning;
+    }
+
+    /**
+     * Applies the options of a connected or connecting socket. Clients call it
+     * before connecting, so the receive buffer takes effect on the handshake.
+     */
+    public void apply(NetworkChannel socket) throws IOException {
+        socket.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+        if (receiveBufferSize > 0) {
+            socket.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+        }
+        if (sendBufferSize > 0) {
+            socket.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+        }
+    }
+
+    /**
+     * Like {@link #apply(NetworkChannel)}, for callers that cannot throw
+     */
+    public void applyAndLog(NetworkChannel socket) {
+        try {
+            apply(socket);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Applies the options of a listening socket and binds it.
+     */
+    public void bind(ServerSocketChannel server, InetSocketAddress local) throws IOException {
+        applyToServer(server);
+        server.bind(local, backlog);
+    }
+
+    public void bind(AsynchronousServerSocketChannel server, InetSocketAddress local) throws IOException {
+        applyToServer(server);
+        server.bind(local, backlog);
+    }
+
+    private void applyToServer(NetworkChannel server) throws IOException {
+        server.setOption(StandardSocketOptions.SO_REUSEADDR, reuseAddress);
+        if (receiveBufferSize > 0) {
+            server.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+        }
+    }
+
+    /**
+     * Sets the options of the channels a Netty client bootstrap creates.
+     */
+    public void apply(AbstractBootstrap<?, ?> bootstrap) {
+        bootstrap.option(ChannelOption.TCP_NODELAY, tcpNoDelay);
+        if (receiveBufferSize > 0) {
+            bootstrap.option(ChannelOption.SO_RCVBUF, receiveBufferSize);
+        }
+        if (sendBufferSize > 0) {
+            bootstrap.option(ChannelOption.SO_SNDBUF, sendBufferSize);
+        }
+    }
+
+    /**
+     * Sets the options of a Netty server's listening channel and of the channels it accepts.
+     */
+    public void apply(ServerBootstrap bootstrap) {
+        bootstrap.option(ChannelOption.SO_REUSEADDR, reuseAddress);
+        if (backlog > 0) {
+            bootstrap.option(ChannelOption.SO_BACKLOG, backlog);
+        }
+        if (receiveBufferSize > 0) {
+            bootstrap.option(ChannelOption.SO_RCVBUF, receiveBufferSize);
+            bootstrap.childOption(ChannelOption.SO_RCVBUF, receiveBufferSize);
+        }
+        if (sendBufferSize > 0) {
+            bootstrap.childOption(ChannelOption.SO_SNDBUF, sendBufferSize);
+        }
+        bootstrap.childOption(ChannelOption.TCP_NODELAY, tcpNoDelay);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "tcpNoDelay=%s receiveBufferSize=%d sendBufferSize=%d backlog=%d reuseAddress=%s",
+                tcpNoDelay,
+                receiveBufferSize,
+                sendBufferSize,
+                backlog,
+                reuseAddress);
+    }
+}
@@ -3,50 +3,64 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
 
 public class SyncEchoServer {
 
-    public static final int PORT = 4726;
-    public static final int BUFFER_SIZE = 4096;
+    public static final int PORT = Integer.getInteger("port", 4726);
+    public static final int BUFFER_SIZE = Integer.getInteger("bufferSize", 4096);
+
+    static final ServerMetrics metrics = new ServerMetrics("sync");
+    static final SocketTuning tuning = SocketTuning.fromSystemProperties();
 
     public static void main(String[] args) throws Exception {
-        startServer();
+        ThreadMode threadMode = ThreadMode.parse(System.getProperty("threadMode", "platform"));
+        startServer(threadMode);
     }
 
-    static void startServer() throws IOException {
+    static void startServer(ThreadMode threadMode) throws IOException {
         try (ServerSocketChannel server = ServerSocketChannel.open()) {
             InetSocketAddress local = new InetSocketAddress(PORT);
-            server.bind(local);
-            System.out.printf("Sync server Listening on %s\n", local);
+            tuning.bind(server, local);
+            System.out.printf("Sync server Listening on %s using %s threads\n", server.getLocalAddress(), threadMode);
+            metrics.setBufferBytes(() -> metrics.getActiveConnections() * BUFFER_SIZE);
+            metrics.start();
+            ExecutorService executor = threadMode.newExecutor();
             while (true) {
                 SocketChannel client = server.accept();
-                Thread clientThread = new Thread(() -> handleSyncConnection(client));
-                clientThread.start();
+                ServerMetrics.Connection connection = metrics.recordAccept();
+                tuning.applyAndLog(client);
+                executor.execute(() -> handleSyncConnection(client, connection));
             }
         }
     }
 
-    static void handleSyncConnection(SocketChannel socket) {
+    static void handleSyncConnection(SocketChannel socket, ServerMetrics.Connection connection) {
         ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
         try {
-            System.out.printf("Client connected from %s\n", socket.getRemoteAddress());
+            if (Utils.LOG_CONNECTIONS) {
+                System.out.printf("Client connected from %s\n", socket.getRemoteAddress());
+            }
             while (true) {
                 int bytesRead = socket.read(buffer);
                 if (bytesRead <= 0) {
                     break;
                 }
+                metrics.recordRead(connection, bytesRead);
 
                 buffer.flip();
                 int bytesWritten = socket.write(buffer);
                 if (bytesWritten <= 0) {
                     break;
                 }
+                metrics.recordWrite(connection, bytesWritten);
                 buffer.compact();
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            Utils.printUnlessReset(e);
         } finally {
             Utils.closeAndLog(socket);
+            metrics.recordClose(connection);
         }
     }
 }
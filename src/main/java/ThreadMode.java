@@ -0,0 +1,42 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Kind of thread a blocking server or client runs each connection on.
+ */
+public enum ThreadMode {
+    PLATFORM,
+    VIRTUAL;
+
+    public Thread start(Runnable task) {
+        switch (this) {
+        case VIRTUAL:
+            return Thread.ofVirtual().start(task);
+        default:
+            return Thread.ofPlatform().start(task);
+        }
+    }
+
+    /**
+     * @return Executor running each task on a thread of this kind. Platform
+     *         threads are kept and reused by later tasks, so a server that
+     *         accepts many short connections does not start a thread for each.
+     */
+    public ExecutorService newExecutor() {
+        switch (this) {
+        case VIRTUAL:
+            return Executors.newVirtualThreadPerTaskExecutor();
+        default:
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public static ThreadMode parse(String threadModeString) {
+        switch (threadModeString) {
+        case "virtual":
+            return VIRTUAL;
+        default:
+            return PLATFORM;
+        }
+    }
+}
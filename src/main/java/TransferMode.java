@@ -0,0 +1,37 @@
+/**
+ * How {@link BulkTransferServer} moves file contents onto a socket.
+ */
+public enum TransferMode {
+    /** FileChannel.transferTo, sendfile on Linux, the data never enters the JVM */
+    TRANSFER_TO,
+    /** Read into and write from a direct buffer, one copy out of and one into the kernel */
+    DIRECT,
+    /** Read into and write from a heap buffer, which the JDK copies through a temporary direct buffer both ways */
+    HEAP;
+
+    /**
+     * @throws IllegalArgumentException Unless the name is transferTo, direct or heap, so a typo
+     *         cannot silently measure another mode
+     */
+    public static TransferMode parse(String transferModeString) {
+        switch (transferModeString) {
+        case "transferTo":
+            return TRANSFER_TO;
+        case "direct":
+            return DIRECT;
+        case "heap":
+            return HEAP;
+        default:
+            throw new IllegalArgumentException("Unknown transfer mode " + transferModeString);
+        }
+    }
+
+    /**
+     * @param ordinal Mode requested by a client, see {@link BulkTransferClient}
+     * @return The mode, or null if there is no such mode
+     */
+    public static TransferMode fromOrdinal(int ordinal) {
+        TransferMode[] modes = values();
+        return ordinal >= 0 && ordinal < modes.length ? modes[ordinal] : null;
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs every client against every server over loopback for each combination
+ * of socket options and application buffer sizes, and reports the best
+ * combination of each server and client pair.
+ *
+ * Each option takes a comma separated list of the values to try under its
+ * own name, e.g. -DtcpNoDelay=true,false -DreceiveBufferSize=0,262144, see
+ * {@link SocketTuning}. -DbufferSize is the server's buffer and
+ * -DreadBufferSize the client's read buffer. A server is forked on an
+ * ephemeral port for every combination, so options that only take effect on the
+ * listening socket are covered too. The results of every run go to -Dresults
+ * (default build/perf/tuning.csv), the best combination is the one with the
+ * highest message rate, or the lowest P99 with -Dobjective=latency.
+ */
+public class TuningSweep {
+
+    /**
+     * An option of the sweep and the values it takes
+     */
+    static class Dimension {
+        final String name;
+        final List<String> values;
+        final boolean server;
+        final boolean client;
+
+        Dimension(String name, String defaultValues, boolean server, boolean client) {
+            this.name = name;
+            this.values = RegressionSuite.list(System.getProperty(name, defaultValues));
+            this.server = server;
+            this.client = client;
+        }
+    }
+
+    static List<Dimension> dimensions() {
+        List<Dimension> dimensions = new ArrayList<>();
+        dimensions.add(new Dimension("tcpNoDelay", "true,false", true, true));
+        dimensions.add(new Dimension("receiveBufferSize", "0,262144", true, true));
+        dimensions.add(new Dimension("sendBufferSize", "0,262144", true, true));
+        dimensions.add(new Dimension("backlog", "0", true, false));
+        dimensions.add(new Dimension("reuseAddress", "true", true, false));
+        dimensions.add(new Dimension("bufferSize", "4096,65536", true, false));
+        dimensions.add(new Dimension("readBufferSize", "65536", false, true));
+        return dimensions;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> servers = RegressionSuite.list(System.getProperty("servers", "SyncEchoServer,AsyncEchoServer"));
+        List<String> clients = RegressionSuite.list(System.getProperty("clients", "sync,async"));
+        String mode = System.getProperty("clientMode", "half");
+        int numClients = Integer.parseInt(System.getProperty("numClients", "4"));
+        int warmupSeconds = Integer.parseInt(System.getProperty("warmup", "1"));
+        int durationSeconds = Integer.parseInt(System.getProperty("duration", "3"));
+        boolean latency = System.getProperty("objective", "throughput").equals("latency");
+        Path resultsPath = Paths.get(System.getProperty("results", "build/perf/tuning.csv"));
+
+        List<Dimension> dimensions = dimensions();
+        int combinations = 1;
+        for (Dimension dimension : dimensions) {
+            combinations *= dimension.values.size();
+        }
+        System.out.printf(
+                "Sweeping %d combinations of %d servers and %d clients, %ds each\n",
+                combinations,
+                servers.size(),
+                clients.size(),
+                warmupSeconds + durationSeconds);
+
+        Path logs = Files.createDirectories(resultsPath.toAbsolutePath().getParent().resolve("tuning"));
+        Map<String, double[]> best = new LinkedHashMap<>();
+        Map<String, String> bestSettings = new LinkedHashMap<>();
+
+        try (PrintWriter out = new PrintWriter(resultsPath.toFile())) {
+            StringBuilder header = new StringBuilder("server,client,mode");
+            for (Dimension dimension : dimensions) {
+                header.append(',').append(dimension.name);
+            }
+            out.println(header.append(",messageRate,latencyP99Ms"));
+
+            for (String server : servers) {
+                for (int combination = 0; combination < combinations; combination++) {
+                    List<String> values = values(dimensions, combination);
+                    List<String> serverProperties = new ArrayList<>();
+                    serverProperties.add("-Dport=0");
+                    serverProperties.add("-DstatsInterval=0");
+                    List<String> clientProperties = new ArrayList<>();
+                    for (int i = 0; i < dimensions.size(); i++) {
+                        String property = "-D" + dimensions.get(i).name + "=" + values.get(i);
+                        if (dimensions.get(i).server) {
+                            serverProperties.add(property);
+                        }
+                        if (dimensions.get(i).client) {
+                            clientProperties.add(property);
+                        }
+                    }
+                    String settings = settings(dimensions, values);
+
+                    Path serverLog = logs.resolve(server + "-" + combination + ".log");
+                    Process serverProcess = RegressionSuite.fork(server, serverLog, serverProperties.toArray(new String[0]));
+                    try {
+                        int port = RegressionSuite.awaitListening(serverProcess, serverLog);
+                        for (String client : clients) {
+                            double[] result = RegressionSuite.runClient(
+                                    client,
+                                    mode,
+                                    port,
+                                    numClients,
+                                    warmupSeconds,
+                                    durationSeconds,
+                                    logs.resolve(server + "-" + client + "-" + combination),
+                                    clientProperties.toArray(new String[0]));
+
+                            out.printf(
+                                    Locale.ROOT,
+                                    "%s,%s,%s,%s,%.0f,%.3f\n",
+                                    server,
+                                    client,
+                                    mode,
+                                    String.join(",", values),
+                                    result[0],
+                                    result[1]);
+                            out.flush();
+                            System.out.printf(
+                                    "%-16s %-6s %s: %10.0f msgs/s P99 %8.3fms\n",
+                                    server,
+                                    client,
+                                    settings,
+                                    result[0],
+                                    result[1]);
+
+                            String pair = server + " " + client;
+                            if (isBetter(result, best.get(pair), latency)) {
+                                best.put(pair, result);
+                                bestSettings.put(pair, settings);
+                            }
+                        }
+                    } finally {
+                        serverProcess.destroyForcibly().waitFor();
+                    }
+                }
+            }
+        }
+
+        System.out.printf("Results written to %s\nBest settings by %s:\n", resultsPath, latency ? "P99 latency" : "throughput");
+        for (Map.Entry<String, double[]> entry : best.entrySet()) {
+            System.out.printf(
+                    "  %-23s %s: %.0f msgs/s P99 %.3fms\n",
+                    entry.getKey(),
+                    bestSettings.get(entry.getKey()),
+                    entry.getValue()[0],
+                    entry.getValue()[1]);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @return The values of each dimension in the given combination, the first dimension varying slowest
+     */
+    static List<String> values(List<Dimension> dimensions, int combination) {
+        String[] values = new String[dimensions.size()];
+        for (int i = dimensions.size() - 1; i >= 0; i--) {
+            List<String> dimensionValues = dimensions.get(i).values;
+            values[i] = dimensionValues.get(combination % dimensionValues.size());
+            combination /= dimensionValues.size();
+        }
+        return List.of(values);
+    }
+
+    static String settings(List<Dimension> dimensions, List<String> values) {
+        List<String> settings = new ArrayList<>();
+        for (int i = 0; i < dimensions.size(); i++) {
+            settings.add(dimensions.get(i).name + "=" + values.get(i));
+        }
+        return String.join(" ", settings);
+    }
+
+    static boolean isBetter(double[] result, double[] best, boolean latency) {
+        if (result[0] == 0) {
+            return false;
+        }
+        if (best == null) {
+            return true;
+        }
+        return latency ? result[1] < best[1] : result[0] > best[0];
+    }
+}
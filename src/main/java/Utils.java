@@ -1,10 +1,23 @@
 import java.io.Closeable;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
 import java.net.SocketAddress;
 import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 public class Utils {
 
+    /**
+     * Whether servers print every connection, off by default as console I/O
+     * on the accept path limits the connection rate
+     */
+    public static final boolean LOG_CONNECTIONS = Boolean.getBoolean("logConnections");
+
     public static void closeAndLog(Closeable closeable) {
         if (closeable == null) {
             return;
@@ -17,6 +30,37 @@ public class Utils {
         }
     }
 
+    /**
+     * Prints a connection error unless the peer went away, which clients that
+     * close abruptly cause on every connection. Those only get a line with
+     * -DlogConnections=true.
+     */
+    public static void printUnlessReset(Throwable e) {
+        if (!isPeerClose(e)) {
+            e.printStackTrace();
+        } else if (LOG_CONNECTIONS) {
+            System.out.printf("Connection closed by peer: %s\n", e);
+        }
+    }
+
+    /**
+     * @return Whether the error is the connection being closed under an
+     *         operation or by the peer. The JDK and Netty only tell a reset or a
+     *         write to a closed connection apart by the message of the
+     *         IOException, which is the text of the OS error.
+     */
+    static boolean isPeerClose(Throwable e) {
+        // Includes AsynchronousCloseException
+        if (e instanceof ClosedChannelException) {
+            return true;
+        }
+        if (!(e instanceof IOException) || e.getMessage() == null) {
+            return false;
+        }
+        String message = e.getMessage();
+        return message.contains("Connection reset") || message.contains("Broken pipe");
+    }
+
     public static SocketAddress getRemoteAddress(AsynchronousSocketChannel socket) {
         try {
             return socket.getRemoteAddress();
@@ -27,4 +71,44 @@ public class Utils {
         return null;
     }
 
+    /**
+     * @return CPU time used by this process in nanoseconds, or -1 if the JVM does not report it
+     */
+    public static long getProcessCpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    /**
+     * Registers an MXBean with the platform MBean server, replacing any
+     * previous bean of the same name.
+     */
+    public static void registerMBean(Object bean, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(bean, objectName);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static void unregisterMBean(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
 }